@@ -2,6 +2,9 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import nz.sodium.*;
@@ -50,5 +53,57 @@ public class Animate extends JPanel {
             tLast = tIdeal;
         }
     }
-}
 
+    /**
+     * Run an animation without a window on a virtual clock, at the specified multiple
+     * of real time, or as fast as possible if speed is 0. The animation is stepped
+     * every 15 ms of its own time, as it is on screen, but only drawn as often as a
+     * screen would show it, every 15 ms of real time, and at the end. The last frame
+     * is the same every time.
+     */
+    public static void replay(String title, Animation anim,
+                              double seconds, double speed) {
+        Dimension windowSize = new Dimension(500, 350);
+        Point extents = new Point(windowSize.width/2, windowSize.height/2);
+        VirtualTimerSystem<Double> sys = new VirtualTimerSystem<>(0.0);
+        Cell<Drawable> drawable = Transaction.run(() ->
+            Shapes.translate(
+                anim.create(sys, extents),
+                new Cell<>(extents)));
+        BufferedImage image = new BufferedImage(windowSize.width,
+            windowSize.height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        long t0 = System.nanoTime();
+        long tNextDraw = t0;
+        int frames = 0, drawn = 0;
+        int nFrames = (int)(seconds / 0.015) + 1;
+        for (int i = 0; i < nFrames; i++) {
+            double t = i * 0.015;
+            if (speed > 0) {
+                long due = t0 + (long)(t / speed * 1e9);
+                long toWait;
+                while ((toWait = due - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(toWait);
+            }
+            sys.advanceTo(t);
+            Drawable frame = drawable.sample();
+            frames++;
+            long now = System.nanoTime();
+            if (now >= tNextDraw || i == nFrames - 1) {
+                g.setColor(Color.white);
+                g.fillRect(0, 0, windowSize.width, windowSize.height);
+                frame.draw(g, windowSize.height, new Point(0,0), 1.0);
+                drawn++;
+                tNextDraw = now + 15000000;
+            }
+        }
+        double real = (System.nanoTime() - t0) / 1e9;
+        CRC32 crc = new CRC32();
+        for (int y = 0; y < windowSize.height; y++)
+            for (int x = 0; x < windowSize.width; x++)
+                crc.update(image.getRGB(x, y));
+        System.out.printf(
+            "%-8s %.0f s in %.3f s (%.0fx), %d frames, %d drawn, last frame %08x%n",
+            title, seconds, real, seconds / real, frames, drawn, crc.getValue());
+    }
+}
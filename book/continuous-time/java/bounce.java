@@ -3,31 +3,33 @@ import nz.sodium.*;
 import nz.sodium.time.*;
 
 public class bounce extends Shapes {
+    public static final Animation animation = (sys, extents) -> {
+        Cell<Double> time = sys.time;
+        double t0 = time.sample();
+        double ballRadius = 15;
+        double leftWall = -extents.x + ballRadius;
+        double rightWall = extents.x - ballRadius;
+        double floor = -extents.y + ballRadius;
+        double roof = extents.y - ballRadius;
+        Signal gravity = new Signal(t0, 0, 0, -1200);
+        StreamLoop<Signal> sBounceX = new StreamLoop<>();
+        StreamLoop<Signal> sBounceY = new StreamLoop<>();
+        Cell<Signal> velx = sBounceX.hold(new Signal(t0, 0, 0, 350));
+        Cell<Signal> vely = sBounceY.hold(gravity.integrate(0));
+        Cell<Signal> posx = Signal.integrate(velx, leftWall);
+        Cell<Signal> posy = Signal.integrate(vely, roof);
+        sBounceX.loop(bounceAt(sys, velx, posx, leftWall)
+                      .orElse(bounceAt(sys, velx, posx, rightWall)));
+        sBounceY.loop(bounceAt(sys, vely, posy, floor));
+        return translate(
+            scale(circle(Color.red), new Cell<Double>(ballRadius)),
+            time.lift(posx, posy, (t, x, y) ->
+                    new Point(x.valueAt(t), y.valueAt(t)))
+        );
+    };
+
     public static void main(String[] args) {
-        Animate.animate("bounce", (sys, extents) -> {
-            Cell<Double> time = sys.time;
-            double t0 = time.sample();
-            double ballRadius = 15;
-            double leftWall = -extents.x + ballRadius;
-            double rightWall = extents.x - ballRadius;
-            double floor = -extents.y + ballRadius;
-            double roof = extents.y - ballRadius;
-            Signal gravity = new Signal(t0, 0, 0, -1200);
-            StreamLoop<Signal> sBounceX = new StreamLoop<>();
-            StreamLoop<Signal> sBounceY = new StreamLoop<>();
-            Cell<Signal> velx = sBounceX.hold(new Signal(t0, 0, 0, 350));
-            Cell<Signal> vely = sBounceY.hold(gravity.integrate(0));
-            Cell<Signal> posx = Signal.integrate(velx, leftWall);
-            Cell<Signal> posy = Signal.integrate(vely, roof);
-            sBounceX.loop(bounceAt(sys, velx, posx, leftWall)
-                          .orElse(bounceAt(sys, velx, posx, rightWall)));
-            sBounceY.loop(bounceAt(sys, vely, posy, floor));
-            return translate(
-                scale(circle(Color.red), new Cell<Double>(ballRadius)),
-                time.lift(posx, posy, (t, x, y) ->
-                        new Point(x.valueAt(t), y.valueAt(t)))
-            );
-        });
+        Animate.animate("bounce", animation);
     }
     static double restitution = 0.95;
     public static Stream<Signal> bounceAt(TimerSystem<Double> sys,
@@ -0,0 +1,15 @@
+
+/**
+ * Replay the animations without a window on a virtual clock.
+ * Usage: replay [seconds] [speed]
+ */
+public class replay {
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        double seconds = args.length >= 1 ? Double.parseDouble(args[0]) : 60.0;
+        double speed = args.length >= 2 ? Double.parseDouble(args[1]) : 1000.0;
+        Animate.replay("fwoomph", fwoomph.animation, seconds, speed);
+        Animate.replay("cross", cross.animation, seconds, speed);
+        Animate.replay("bounce", bounce.animation, seconds, speed);
+    }
+}
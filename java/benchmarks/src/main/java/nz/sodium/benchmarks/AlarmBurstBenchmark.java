@@ -0,0 +1,114 @@
+package nz.sodium.benchmarks;
+
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.TransactionDomain;
+import nz.sodium.time.Timer;
+import nz.sodium.time.TimerSystem;
+import nz.sodium.time.TimerSystemImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time per alarm to deliver a burst of alarms that all become due at once, either
+ * all at the same time or each at a different time. The clock is moved by hand, so the
+ * whole burst is delivered by the next transaction.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class AlarmBurstBenchmark {
+    static final int ALARMS = 100000;
+
+    /**
+     * A clock that only moves when it's told to.
+     */
+    static class ManualTimerSystemImpl implements TimerSystemImpl<Long> {
+        class ManualTimer implements Timer, Comparable<ManualTimer> {
+            ManualTimer(long t, Runnable callback) {
+                this.t = t;
+                this.callback = callback;
+            }
+            final long t;
+            final Runnable callback;
+            public void cancel() {
+                timers.remove(this);
+            }
+            public int compareTo(ManualTimer o) {
+                return Long.compare(t, o.t);
+            }
+        }
+        final PriorityQueue<ManualTimer> timers = new PriorityQueue<ManualTimer>();
+        long now;
+
+        public Timer setTimer(Long t, Runnable callback) {
+            ManualTimer timer = new ManualTimer(t, callback);
+            timers.add(timer);
+            return timer;
+        }
+        public void runTimersTo(Long t) {
+            while (!timers.isEmpty() && timers.peek().t <= t)
+                timers.poll().callback.run();
+        }
+        public Long now() {
+            return now;
+        }
+    }
+
+    @Param({"true", "false"})
+    boolean simultaneous;
+
+    TransactionDomain domain;
+    Listener[] listeners;
+    int fired;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        domain = new TransactionDomain();
+        ManualTimerSystemImpl impl = new ManualTimerSystemImpl();
+        TimerSystem<Long> sys = new TimerSystem<Long>(impl, domain);
+        fired = 0;
+        listeners = new Listener[ALARMS];
+        for (int i = 0; i < ALARMS; i++) {
+            long t = simultaneous ? 1000 : 1000 + i;
+            listeners[i] = sys.at(new CellSink<Optional<Long>>(domain, Optional.of(t)))
+                .listen(x -> { fired++; });
+        }
+        impl.now = 1000 + ALARMS;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        for (Listener l : listeners)
+            l.unlisten();
+        if (fired != ALARMS)
+            throw new RuntimeException("fired " + fired + " of " + ALARMS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ALARMS)
+    public int burst() {
+        domain.runVoid(() -> {});
+        return fired;
+    }
+}
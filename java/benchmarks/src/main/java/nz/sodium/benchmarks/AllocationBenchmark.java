@@ -0,0 +1,89 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending events through chains of 10 maps, 10 filters or 10 merges, a fan-out to 100
+ * maps, and a switch between two inner cells on every event, as MemoryTest3 does. Run
+ * with -prof gc, whose gc.alloc.rate.norm is the bytes allocated per event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+    @Param({"map", "filter", "merge", "fanOut", "switchC"})
+    String graph;
+
+    StreamSink<Integer> s;
+    Listener l;
+    int out;
+    int i;
+
+    @Setup
+    public void setUp() {
+        s = new StreamSink<Integer>(new TransactionDomain());
+        Stream<Integer> x = s;
+        switch (graph) {
+            case "map":
+                for (int k = 0; k < 10; k++)
+                    x = x.map(v -> v ^ 1);
+                break;
+            case "filter":
+                for (int k = 0; k < 10; k++)
+                    x = x.filter(v -> v >= 0);
+                break;
+            case "merge":
+                for (int k = 0; k < 10; k++)
+                    x = x.orElse(s.map(v -> v ^ 1));
+                break;
+            case "fanOut":
+                l = new Listener();
+                for (int k = 0; k < 100; k++)
+                    l = l.append(s.map(v -> v ^ 1).listen(v -> { out = v; }));
+                return;
+            case "switchC": {
+                Cell<Integer> t = s.hold(0);
+                Cell<Integer> tDeep = t.map(v -> v ^ 1);
+                l = Cell.switchC(s.map(v -> (v & 1) == 0 ? t : tDeep).hold(t)).listen(v -> { out = v; });
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("graph " + graph);
+        }
+        l = x.listen(v -> { out = v; });
+    }
+
+    @TearDown
+    public void tearDown() {
+        l.unlisten();
+    }
+
+    @Benchmark
+    public int send() {
+        // Small enough for the boxed values to be cached, so they aren't counted.
+        s.send(i++ & 63);
+        return out;
+    }
+}
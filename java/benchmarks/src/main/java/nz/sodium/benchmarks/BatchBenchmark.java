@@ -0,0 +1,93 @@
+package nz.sodium.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.Listener;
+import nz.sodium.SendBatch;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+import nz.sodium.time.MillisecondsTimerSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingesting a burst of ticks into a domain that has a timer system, sending each value
+ * on its own ("send") versus sending the burst with sendAll() ("sendAll") or with a
+ * SendBatch that puts all of it ("batch") or 100 values ("batch100") in each
+ * transaction. The score is values per microsecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+    static final int BURST = 10000;
+
+    @Param({"send", "sendAll", "batch", "batch100"})
+    String ingest;
+
+    TransactionDomain domain;
+    StreamSink<Integer> prices;
+    StreamSink<Integer> volumes;
+    List<Integer> ticks;
+    Listener l;
+    long total;
+
+    @Setup
+    public void setUp() {
+        domain = new TransactionDomain();
+        // Its onStart hook makes each transaction cost more, as it would in an app.
+        new MillisecondsTimerSystem(domain);
+        prices = new StreamSink<Integer>(domain, (a, b) -> b);
+        volumes = new StreamSink<Integer>(domain, (a, b) -> a + b);
+        Cell<Integer> last = prices.hold(0);
+        l = volumes.snapshot(last, (v, p) -> v * p).listen(x -> { total += x; });
+        ticks = new ArrayList<Integer>();
+        for (int i = 0; i < BURST; i++)
+            ticks.add(i % 100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        l.unlisten();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public long burst() {
+        switch (ingest) {
+            case "send":
+                for (int i = 0; i < BURST; i++)
+                    (i % 2 == 0 ? prices : volumes).send(ticks.get(i));
+                break;
+            case "sendAll":
+                prices.sendAll(ticks.subList(0, BURST / 2));
+                volumes.sendAll(ticks.subList(BURST / 2, BURST));
+                break;
+            default: {
+                SendBatch b = new SendBatch(domain, ingest.equals("batch") ? Integer.MAX_VALUE : 100);
+                for (int i = 0; i < BURST; i++)
+                    b.add(i % 2 == 0 ? prices : volumes, ticks.get(i));
+                b.send();
+            }
+        }
+        return total;
+    }
+}
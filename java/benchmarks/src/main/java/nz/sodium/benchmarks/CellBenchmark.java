@@ -0,0 +1,161 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Lambda1;
+import nz.sodium.Listener;
+import nz.sodium.StreamSink;
+import nz.sodium.Tuple2;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updating an input of cells built with lift() and apply(), and sending into the
+ * stateful stream operations hold(), snapshot(), accum() and collect().
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellBenchmark {
+    @State(Scope.Thread)
+    public static class Lift {
+        @Param({"2", "3", "4", "5", "6"})
+        int arity;
+
+        CellSink<Integer> a;
+        Listener l;
+        int out;
+        int i;
+
+        @Setup
+        public void setUp() {
+            TransactionDomain d = new TransactionDomain();
+            a = new CellSink<Integer>(d, 0);
+            Cell<Integer> b = new CellSink<Integer>(d, 1);
+            Cell<Integer> c = new CellSink<Integer>(d, 2);
+            Cell<Integer> e = new CellSink<Integer>(d, 3);
+            Cell<Integer> f = new CellSink<Integer>(d, 4);
+            Cell<Integer> g = new CellSink<Integer>(d, 5);
+            Cell<Integer> lifted;
+            switch (arity) {
+                case 2: lifted = a.lift(b, (x1, x2) -> x1 + x2); break;
+                case 3: lifted = a.lift(b, c, (x1, x2, x3) -> x1 + x2 + x3); break;
+                case 4: lifted = a.lift(b, c, e, (x1, x2, x3, x4) -> x1 + x2 + x3 + x4); break;
+                case 5: lifted = a.lift(b, c, e, f, (x1, x2, x3, x4, x5) -> x1 + x2 + x3 + x4 + x5); break;
+                case 6: lifted = a.lift(b, c, e, f, g, (x1, x2, x3, x4, x5, x6) -> x1 + x2 + x3 + x4 + x5 + x6); break;
+                default: throw new IllegalArgumentException("arity " + arity);
+            }
+            l = lifted.listen(x -> { out = x; });
+        }
+
+        @TearDown
+        public void tearDown() {
+            l.unlisten();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Apply {
+        CellSink<Lambda1<Integer, Integer>> f;
+        CellSink<Integer> a;
+        Listener l;
+        int out;
+        int i;
+
+        @Setup
+        public void setUp() {
+            TransactionDomain d = new TransactionDomain();
+            f = new CellSink<Lambda1<Integer, Integer>>(d, x -> x + 1);
+            a = new CellSink<Integer>(d, 0);
+            l = Cell.apply(f, a).listen(x -> { out = x; });
+        }
+
+        @TearDown
+        public void tearDown() {
+            l.unlisten();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Stateful {
+        StreamSink<Integer> holdSnapshot;
+        StreamSink<Integer> accum;
+        StreamSink<Integer> collect;
+        Listener l;
+        int out;
+        int i;
+
+        @Setup
+        public void setUp() {
+            TransactionDomain d = new TransactionDomain();
+            holdSnapshot = new StreamSink<Integer>(d);
+            accum = new StreamSink<Integer>(d);
+            collect = new StreamSink<Integer>(d);
+            Cell<Integer> held = holdSnapshot.hold(0);
+            l = holdSnapshot.snapshot(held, (x, y) -> x + y).listen(x -> { out = x; })
+                .append(accum.accum(0, (x, acc) -> x + acc).listen(x -> { out = x; }))
+                .append(collect.collect(0, (x, st) -> new Tuple2<Integer, Integer>(x + st, st + 1))
+                               .listen(x -> { out = x; }));
+        }
+
+        @TearDown
+        public void tearDown() {
+            l.unlisten();
+        }
+    }
+
+    @Benchmark
+    public int lift(Lift st) {
+        st.a.send(st.i++);
+        return st.out;
+    }
+
+    @Benchmark
+    public int applyFunction(Apply st) {
+        st.f.send(x -> x + 2);
+        return st.out;
+    }
+
+    @Benchmark
+    public int applyArgument(Apply st) {
+        st.a.send(st.i++);
+        return st.out;
+    }
+
+    /**
+     * Snapshot of a cell held from the same stream, so each send updates the cell too.
+     */
+    @Benchmark
+    public int holdSnapshot(Stateful st) {
+        st.holdSnapshot.send(st.i++);
+        return st.out;
+    }
+
+    @Benchmark
+    public int accum(Stateful st) {
+        st.accum.send(st.i++);
+        return st.out;
+    }
+
+    @Benchmark
+    public int collect(Stateful st) {
+        st.collect.send(st.i++);
+        return st.out;
+    }
+}
@@ -0,0 +1,105 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Independent FRP networks driven from separate threads, with each network in its own
+ * TransactionDomain ("separate") versus all of them sharing one domain ("shared").
+ * Each invocation is a round in which every thread sends 10000 events into its own
+ * network, so the events per second are threads * 10000 divided by the time per round.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DomainBenchmark {
+    static final int EVENTS = 10000;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    @Param({"separate", "shared"})
+    String domains;
+
+    Thread[] workers;
+    CyclicBarrier start, done;
+    volatile boolean stop;
+
+    static class Network {
+        final StreamSink<Integer> s;
+        final Listener l;
+        int total;
+        Network(TransactionDomain d) {
+            s = new StreamSink<Integer>(d);
+            Cell<Integer> c = s.map(x -> x + 1).filter(x -> x % 3 != 0).hold(0);
+            Stream<Integer> sum = s.snapshot(c, (x, y) -> x + y);
+            l = sum.listen(x -> { total += x; });
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        TransactionDomain shared = new TransactionDomain();
+        start = new CyclicBarrier(threads + 1);
+        done = new CyclicBarrier(threads + 1);
+        stop = false;
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Network n = new Network(domains.equals("shared") ? shared : new TransactionDomain());
+            workers[i] = new Thread(() -> {
+                try {
+                    while (true) {
+                        start.await();
+                        if (stop)
+                            break;
+                        for (int j = 0; j < EVENTS; j++)
+                            n.s.send(j);
+                        done.await();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    n.l.unlisten();
+                }
+            });
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stop = true;
+        start.await();
+        for (Thread t : workers)
+            t.join();
+    }
+
+    @Benchmark
+    public void round() throws Exception {
+        start.await();
+        done.await();
+    }
+}
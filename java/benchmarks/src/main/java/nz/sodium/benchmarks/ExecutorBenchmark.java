@@ -0,0 +1,110 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+import nz.sodium.TransactionExecutor;
+import nz.sodium.Unit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Producer threads sending into one domain, each calling send() directly ("send")
+ * versus handing the sends to a TransactionExecutor ("executor"). Each invocation is a
+ * round in which every producer sends 10000 events, and it includes the time for the
+ * executor to catch up, so the events per second are producers * 10000 divided by
+ * the time per round.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark {
+    static final int EVENTS = 10000;
+
+    @Param({"1", "2", "4", "8"})
+    int producers;
+
+    @Param({"send", "executor"})
+    String impl;
+
+    Cell<Integer> total;
+    TransactionExecutor ex;
+    Thread[] workers;
+    CyclicBarrier start, done;
+    volatile boolean stop;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        final StreamSink<Integer> s = new StreamSink<Integer>(d);
+        total = s.map(x -> x + 1).accum(0, (x, t) -> x + t);
+        ex = new TransactionExecutor(d, 65536, Executors.defaultThreadFactory());
+        final boolean viaExecutor = impl.equals("executor");
+        start = new CyclicBarrier(producers + 1);
+        done = new CyclicBarrier(producers + 1);
+        stop = false;
+        workers = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    while (true) {
+                        start.await();
+                        if (stop)
+                            break;
+                        CompletableFuture<Unit> last = null;
+                        for (int j = 0; j < EVENTS; j++)
+                            if (viaExecutor)
+                                last = ex.send(s, j & 63);
+                            else
+                                s.send(j & 63);
+                        // The executor runs sends in order, so once this one has
+                        // been done, all of ours have.
+                        if (last != null)
+                            last.get();
+                        done.await();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stop = true;
+        start.await();
+        for (Thread t : workers)
+            t.join();
+        ex.shutdown();
+        ex.awaitTermination();
+    }
+
+    @Benchmark
+    public int round() throws Exception {
+        start.await();
+        done.await();
+        return total.sample();
+    }
+}
@@ -0,0 +1,51 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Lazy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a deep chain of Lazy.map() and getting its value a number of times, and the
+ * same for a chain where each level lifts the previous one with itself, which evaluates
+ * the whole chain below it twice if nothing is remembered.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LazyBenchmark {
+    static final int DEPTH = 1000;
+    static final int DIAMOND_DEPTH = 18;
+    static final int GETS = 100;
+
+    @Benchmark
+    public long mapChain() {
+        Lazy<Integer> l = new Lazy<Integer>(0);
+        for (int i = 0; i < DEPTH; i++)
+            l = l.map(x -> x + 1);
+        long total = 0;
+        for (int i = 0; i < GETS; i++)
+            total += l.get();
+        return total;
+    }
+
+    @Benchmark
+    public int diamond() {
+        Lazy<Integer> l = new Lazy<Integer>(1);
+        for (int i = 0; i < DIAMOND_DEPTH; i++)
+            l = l.lift(l, (a, b) -> (a + b) % 1000003);
+        return l.get();
+    }
+}
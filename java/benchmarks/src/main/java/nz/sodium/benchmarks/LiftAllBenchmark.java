@@ -0,0 +1,99 @@
+package nz.sodium.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Combining a collection of cells with Cell.liftAll() ("liftAll") and by folding lift()
+ * over it ("fold"), as CellJunction.combines does in the book: updating one member, and
+ * changing a collection that's held in a cell by adding or removing its last member,
+ * which rebuilds the whole fold.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LiftAllBenchmark {
+    @Param({"16", "256", "1024"})
+    int cells;
+
+    @Param({"liftAll", "fold"})
+    String impl;
+
+    CellSink<Integer> member;
+    CellSink<List<Cell<Integer>>> sMembers;
+    List<Cell<Integer>> shorter;
+    List<Cell<Integer>> longer;
+    Listener listeners;
+    int out;
+    int i;
+
+    static Cell<Integer> fold(List<? extends Cell<Integer>> ins) {
+        Cell<Integer> c = new Cell<Integer>(0);
+        for (Cell<Integer> in : ins)
+            c = c.lift(in, (a, b) -> a + b);
+        return c;
+    }
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        List<CellSink<Integer>> ins = new ArrayList<CellSink<Integer>>();
+        for (int k = 0; k < cells; k++)
+            ins.add(new CellSink<Integer>(d, k));
+        member = ins.get(cells / 2);
+        shorter = new ArrayList<Cell<Integer>>(ins);
+        longer = new ArrayList<Cell<Integer>>(ins);
+        longer.add(new CellSink<Integer>(d, cells));
+        sMembers = new CellSink<List<Cell<Integer>>>(d, shorter);
+        Cell<Integer> fixed, dyn;
+        if (impl.equals("fold")) {
+            fixed = fold(ins);
+            dyn = Cell.switchC(sMembers.map(ms -> fold(ms)));
+        }
+        else {
+            fixed = Cell.liftAll(ins, 0, (a, b) -> a + b);
+            dyn = Cell.liftAll(sMembers, 0, (a, b) -> a + b);
+        }
+        listeners = fixed.listen(x -> { out = x; })
+            .append(dyn.listen(x -> { out = x; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    @Benchmark
+    public int update() {
+        member.send(i++ & 63);
+        return out;
+    }
+
+    @Benchmark
+    public int changeMembers() {
+        sMembers.send((i++ & 1) == 0 ? longer : shorter);
+        return out;
+    }
+}
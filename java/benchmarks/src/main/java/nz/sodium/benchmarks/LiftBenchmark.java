@@ -0,0 +1,97 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Lambda1;
+import nz.sodium.Listener;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updating one input of lift() ("flat") and of the chain of map() and apply() it used
+ * to be built from ("curried"), for 2 to 6 inputs. Run with -prof gc to see the bytes
+ * allocated per update.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LiftBenchmark {
+    @Param({"2", "3", "4", "5", "6"})
+    int arity;
+
+    @Param({"flat", "curried"})
+    String impl;
+
+    CellSink<Integer> a;
+    Listener l;
+    Object out;
+    int i;
+
+    /**
+     * The curried function that sums the remaining n arguments into acc.
+     */
+    static Object curry(final int n, final int acc) {
+        if (n == 0)
+            return acc;
+        return (Lambda1<Integer, Object>)x -> curry(n - 1, acc + x);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Cell<?> curried(Cell<Integer>[] ins) {
+        Cell c = ins[0].map(x -> curry(ins.length - 1, x));
+        for (int i = 1; i < ins.length; i++)
+            c = Cell.apply((Cell<Lambda1<Integer, Object>>)c, ins[i]);
+        return c;
+    }
+
+    static Cell<?> flat(Cell<Integer>[] ins) {
+        switch (ins.length) {
+            case 2: return ins[0].lift(ins[1], (a, b) -> a + b);
+            case 3: return ins[0].lift(ins[1], ins[2], (a, b, c) -> a + b + c);
+            case 4: return ins[0].lift(ins[1], ins[2], ins[3], (a, b, c, d) -> a + b + c + d);
+            case 5: return ins[0].lift(ins[1], ins[2], ins[3], ins[4], (a, b, c, d, e) -> a + b + c + d + e);
+            case 6: return ins[0].lift(ins[1], ins[2], ins[3], ins[4], ins[5], (a, b, c, d, e, f) -> a + b + c + d + e + f);
+            default: throw new IllegalArgumentException("arity " + ins.length);
+        }
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        CellSink<Integer>[] ins = new CellSink[arity];
+        for (int k = 0; k < arity; k++)
+            ins[k] = new CellSink<Integer>(d, k);
+        a = ins[0];
+        l = (impl.equals("curried") ? curried(ins) : flat(ins)).listen(x -> { out = x; });
+    }
+
+    @TearDown
+    public void tearDown() {
+        l.unlisten();
+    }
+
+    @Benchmark
+    public Object update() {
+        // Small enough for the boxed values to be cached.
+        a.send(i++ & 63);
+        return out;
+    }
+}
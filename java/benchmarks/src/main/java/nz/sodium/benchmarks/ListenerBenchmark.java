@@ -0,0 +1,60 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Attaching a listener to an existing network and detaching it again.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListenerBenchmark {
+    Stream<Integer> s;
+    Cell<Integer> c;
+    int out;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        StreamSink<Integer> sink = new StreamSink<Integer>(d);
+        s = sink.map(x -> x + 1);
+        c = s.hold(0);
+    }
+
+    @Benchmark
+    public Listener listenStream() {
+        Listener l = s.listen(x -> { out = x; });
+        l.unlisten();
+        return l;
+    }
+
+    /**
+     * Listening to a cell also fires its current value in the listening transaction.
+     */
+    @Benchmark
+    public Listener listenCell() {
+        Listener l = c.listen(x -> { out = x; });
+        l.unlisten();
+        return l;
+    }
+}
@@ -0,0 +1,108 @@
+package nz.sodium.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging a collection of streams, with Stream.merge(Iterable, Lambda2) ("nway") and
+ * with the balanced tree of two-way merges it used to build ("tree").
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeBenchmark {
+    @Param({"10", "1000", "100000"})
+    int inputs;
+
+    @Param({"nway", "tree"})
+    String impl;
+
+    TransactionDomain domain;
+    List<StreamSink<Integer>> sinks;
+    StreamSink<Integer> all;
+    Listener listeners;
+    int out;
+    int i;
+
+    static Stream<Integer> tree(List<? extends Stream<Integer>> ss, int start, int end) {
+        if (end - start == 1)
+            return ss.get(start);
+        int mid = (start + end) / 2;
+        return tree(ss, start, mid).merge(tree(ss, mid, end), (a, b) -> a + b);
+    }
+
+    Stream<Integer> merge(List<? extends Stream<Integer>> ss) {
+        if (impl.equals("tree"))
+            return tree(ss, 0, ss.size());
+        return Stream.merge(new ArrayList<Stream<Integer>>(ss), (a, b) -> a + b);
+    }
+
+    @Setup
+    public void setUp() {
+        domain = new TransactionDomain();
+        sinks = new ArrayList<StreamSink<Integer>>();
+        for (int j = 0; j < inputs; j++)
+            sinks.add(new StreamSink<Integer>(domain));
+        // All the inputs fire at once when this does.
+        all = new StreamSink<Integer>(domain);
+        List<Stream<Integer>> branches = new ArrayList<Stream<Integer>>();
+        for (int j = 0; j < inputs; j++)
+            branches.add(all.map(x -> x + 1));
+        listeners = merge(sinks).listen(x -> { out = x; })
+            .append(merge(branches).listen(x -> { out = x; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    /**
+     * One input, chosen in turn, fires.
+     */
+    @Benchmark
+    public int oneFires() {
+        sinks.get(i++ % inputs).send(i);
+        return out;
+    }
+
+    /**
+     * All the inputs fire in the same transaction.
+     */
+    @Benchmark
+    public int allFire() {
+        all.send(i++);
+        return out;
+    }
+
+    /**
+     * Building the merge, listening to it and unlistening.
+     */
+    @Benchmark
+    public int build() {
+        merge(sinks).listen(x -> { out = x; }).unlisten();
+        return out;
+    }
+}
@@ -0,0 +1,70 @@
+package nz.sodium.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Listener;
+import nz.sodium.Operational;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operational.split() and Operational.defer(), which post each value into a
+ * transaction of its own.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OperationalBenchmark {
+    StreamSink<List<Integer>> splitSink;
+    StreamSink<Integer> deferSink;
+    List<Integer> values = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8);
+    Listener listeners;
+    int out;
+    int i;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        splitSink = new StreamSink<List<Integer>>(d);
+        deferSink = new StreamSink<Integer>(d);
+        listeners = Operational.split(splitSink).listen(x -> { out += x; })
+            .append(Operational.defer(deferSink).listen(x -> { out = x; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    /**
+     * Splits eight values into eight transactions.
+     */
+    @Benchmark
+    public int split() {
+        splitSink.send(values);
+        return out;
+    }
+
+    @Benchmark
+    public int defer() {
+        deferSink.send(i++);
+        return out;
+    }
+}
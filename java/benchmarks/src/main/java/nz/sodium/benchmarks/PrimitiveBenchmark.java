@@ -0,0 +1,98 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.IntCell;
+import nz.sodium.IntCellSink;
+import nz.sodium.IntStream;
+import nz.sodium.IntStreamSink;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Numeric pipelines built from the int specializations (IntStream, IntCell), compared
+ * with the same pipelines on boxed Integers. The values sent are large enough not to
+ * come from the Integer cache, so the boxed pipelines allocate for every value.
+ * Run with -prof gc to see the difference in allocation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimitiveBenchmark {
+    @Param({"10"})
+    int depth;
+
+    StreamSink<Integer> boxedSink;
+    CellSink<Integer> boxedCell;
+    IntStreamSink intSink;
+    IntCellSink intCell;
+    Listener listeners;
+    long out;
+    int i = 1000;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        boxedSink = new StreamSink<Integer>(d);
+        boxedCell = new CellSink<Integer>(d, 0);
+        intSink = new IntStreamSink(d);
+        intCell = new IntCellSink(d, 0);
+
+        Stream<Integer> boxed = boxedSink;
+        IntStream prim = intSink;
+        for (int j = 0; j < depth; j++) {
+            boxed = boxed.map(x -> x + 1000);
+            prim = prim.map(x -> x + 1000);
+        }
+        Cell<Integer> boxedTotal = boxed.snapshot(boxedCell, (a, b) -> a + b).accum(0, (a, s) -> a + s);
+        IntCell intTotal = prim.snapshot(intCell, (a, b) -> a + b).accum(0, (a, s) -> a + s);
+        Cell<Integer> boxedLift = boxedTotal.lift(boxedCell, (a, b) -> a - b);
+        IntCell intLift = intTotal.lift(intCell, (a, b) -> a - b);
+
+        listeners = boxedLift.listen(x -> { out += x; })
+            .append(intLift.listen(x -> { out += x; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    /**
+     * depth maps, a snapshot, an accum and a lift on boxed Integers.
+     */
+    @Benchmark
+    public long boxed() {
+        boxedSink.send(i++);
+        return out;
+    }
+
+    /**
+     * The same as boxed() with IntStream and IntCell.
+     */
+    @Benchmark
+    public long primitive() {
+        intSink.send(i++);
+        return out;
+    }
+}
@@ -0,0 +1,82 @@
+package nz.sodium.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Transaction;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sampling a number of cells from a thread that's outside any transaction, as a request
+ * handler would, while another thread keeps running transactions that update them: one
+ * at a time with sample(), and all together with Transaction.snapshot(). The
+ * percentiles from SampleTime are the interesting part.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleBenchmark {
+    @Param({"24"})
+    int cells;
+
+    Cell<Integer>[] cs;
+    Thread writer;
+    volatile boolean stop;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        final CellSink<Integer> in = new CellSink<Integer>(d, 0);
+        cs = new Cell[cells];
+        for (int i = 0; i < cells; i++) {
+            final int k = i;
+            cs[i] = in.map(x -> x + k);
+        }
+        stop = false;
+        writer = new Thread(() -> {
+            int n = 0;
+            while (!stop)
+                in.send(n++);
+        });
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        stop = true;
+        writer.join();
+    }
+
+    @Benchmark
+    public long sample() {
+        long sum = 0;
+        for (Cell<Integer> c : cs)
+            sum += c.sample();
+        return sum;
+    }
+
+    @Benchmark
+    public List<Object> snapshot() {
+        return Transaction.snapshot(cs);
+    }
+}
@@ -0,0 +1,97 @@
+package nz.sodium.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the rank-bucketed prioritized queue ("bucket") with the original binary
+ * heap ("heap") on a deep chain of 1000 maps, a fan-out to 1000 map-filter pairs,
+ * and a switch between a shallow and a deep cell with 100 listeners downstream.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SchedulerBenchmark {
+    @Param({"bucket", "heap"})
+    String queue;
+
+    @Param({"deep", "wide", "switch"})
+    String graph;
+
+    StreamSink<Integer> s;
+    List<Listener> listeners;
+    int i;
+
+    @Setup
+    public void setUp() {
+        // The queue type is read when a domain creates its queues.
+        System.setProperty("nz.sodium.scheduler", queue);
+        TransactionDomain d = new TransactionDomain();
+        s = new StreamSink<Integer>(d);
+        listeners = new ArrayList<Listener>();
+        switch (graph) {
+            case "deep": {
+                Stream<Integer> x = s;
+                for (int k = 0; k < 1000; k++)
+                    x = x.map(v -> v + 1);
+                listeners.add(x.listen(v -> {}));
+                break;
+            }
+            case "wide":
+                for (int k = 0; k < 1000; k++)
+                    listeners.add(s.map(v -> v + 1).filter(v -> v % 2 == 0).listen(v -> {}));
+                break;
+            case "switch": {
+                CellSink<Integer> shallow = new CellSink<Integer>(d, 0);
+                Cell<Integer> deep = shallow;
+                for (int k = 0; k < 20; k++)
+                    deep = deep.map(v -> v + 1);
+                final Cell<Integer> fDeep = deep;
+                Cell<Integer> out = Cell.switchC(
+                    s.map(v -> v % 2 == 0 ? (Cell<Integer>)shallow : fDeep).hold(shallow));
+                for (int k = 0; k < 100; k++)
+                    listeners.add(out.map(v -> v * 2).listen(v -> {}));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("graph " + graph);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Listener l : listeners)
+            l.unlisten();
+        System.clearProperty("nz.sodium.scheduler");
+    }
+
+    @Benchmark
+    public int send() {
+        s.send(i);
+        return i++;
+    }
+}
@@ -0,0 +1,96 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending one value through chains of stateless stream operations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamBenchmark {
+    @Param({"1", "10"})
+    int depth;
+
+    @Param({"16"})
+    int width;
+
+    StreamSink<Integer> mapSink;
+    StreamSink<Integer> filterSink;
+    StreamSink<Integer> mergeSink;
+    Listener listeners;
+    int out;
+    int i;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        mapSink = new StreamSink<Integer>(d);
+        filterSink = new StreamSink<Integer>(d);
+        mergeSink = new StreamSink<Integer>(d);
+
+        Stream<Integer> mapped = mapSink;
+        for (int j = 0; j < depth; j++)
+            mapped = mapped.map(x -> x + 1);
+
+        // Every other value is let through, so half the sends reach the end.
+        Stream<Integer> filtered = filterSink;
+        for (int j = 0; j < depth; j++)
+            filtered = filtered.filter(x -> (x & 1) == 0);
+
+        Stream<Integer> merged = mergeSink.map(x -> x);
+        for (int j = 1; j < width; j++)
+            merged = merged.merge(mergeSink.map(x -> x + 1), (a, b) -> a + b);
+
+        listeners = mapped.listen(x -> { out = x; })
+            .append(filtered.listen(x -> { out = x; }))
+            .append(merged.listen(x -> { out = x; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    @Benchmark
+    public int mapChain() {
+        mapSink.send(i++);
+        return out;
+    }
+
+    @Benchmark
+    public int filterChain() {
+        filterSink.send(i++);
+        return out;
+    }
+
+    /**
+     * width branches of the same stream, merged back into one.
+     */
+    @Benchmark
+    public int mergeFanIn() {
+        mergeSink.send(i++);
+        return out;
+    }
+}
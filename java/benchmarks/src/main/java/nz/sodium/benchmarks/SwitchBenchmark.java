@@ -0,0 +1,92 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Switching between inner cells and streams on every event, as in MemoryTest3 and
+ * MemoryTest4. The "Alternate" benchmarks flip between two existing inner networks,
+ * which measures re-linking. The "Fresh" ones switch to a newly constructed inner
+ * network every time, which also measures construction and cleaning up the old one.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SwitchBenchmark {
+    StreamSink<Integer> source;
+    CellSink<Cell<Integer>> cc;
+    CellSink<Stream<Integer>> cs;
+    Cell<Integer> c1, c2;
+    Stream<Integer> s1, s2;
+    Listener listeners;
+    int out;
+    int i;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        source = new StreamSink<Integer>(d);
+        c1 = source.hold(0);
+        c2 = c1.map(x -> x + 1).map(x -> x + 1).map(x -> x + 1);
+        s1 = source;
+        s2 = source.map(x -> x + 1).map(x -> x + 1).map(x -> x + 1);
+        cc = new CellSink<Cell<Integer>>(d, c1);
+        cs = new CellSink<Stream<Integer>>(d, s1);
+        listeners = Cell.switchC(cc).listen(x -> { out = x; })
+            .append(Cell.switchS(cs).listen(x -> { out = x; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    @Benchmark
+    public int switchCAlternate() {
+        cc.send((i++ & 1) == 0 ? c2 : c1);
+        return out;
+    }
+
+    @Benchmark
+    public int switchSAlternate() {
+        cs.send((i++ & 1) == 0 ? s2 : s1);
+        source.send(i);
+        return out;
+    }
+
+    @Benchmark
+    public int switchCFresh() {
+        final int k = i++;
+        cc.send(c1.map(x -> x + k));
+        return out;
+    }
+
+    @Benchmark
+    public int switchSFresh() {
+        final int k = i++;
+        cs.send(s1.map(x -> x + k));
+        source.send(k);
+        return out;
+    }
+}
@@ -0,0 +1,122 @@
+package nz.sodium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+import nz.sodium.TransactionDomain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Like SwitchBenchmark, but with a large graph downstream of the switch, so the cost
+ * of re-ranking it when the switch is re-linked shows up. "Alternate" flips between
+ * two inner networks, which only raises ranks the first time. "Deeper" switches to a
+ * cell one step deeper than the last every time, so every switch has to raise the
+ * ranks of the whole downstream graph.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwitchRankBenchmark {
+    @State(Scope.Thread)
+    public static class Alternate {
+        @Param({"200"})
+        int downstream;
+
+        CellSink<Cell<Integer>> cc;
+        CellSink<Stream<Integer>> cs;
+        Cell<Integer> c1, c2;
+        Stream<Integer> s1, s2;
+        Listener listeners;
+        int out;
+        int i;
+
+        @Setup
+        public void setUp() {
+            TransactionDomain d = new TransactionDomain();
+            StreamSink<Integer> source = new StreamSink<Integer>(d);
+            c1 = source.hold(0);
+            c2 = c1.map(x -> x + 1).map(x -> x + 1).map(x -> x + 1);
+            s1 = source;
+            s2 = source.map(x -> x + 1).map(x -> x + 1).map(x -> x + 1);
+            cc = new CellSink<Cell<Integer>>(d, c1);
+            cs = new CellSink<Stream<Integer>>(d, s1);
+            Cell<Integer> outC = Cell.switchC(cc);
+            Stream<Integer> outS = Cell.switchS(cs);
+            listeners = outC.listen(x -> { out = x; });
+            for (int k = 0; k < downstream; k++)
+                listeners = listeners.append(outC.map(x -> x + 1).listen(x -> { out = x; }))
+                                     .append(outS.map(x -> x + 1).listen(x -> { out = x; }));
+        }
+
+        @TearDown
+        public void tearDown() {
+            listeners.unlisten();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Deeper {
+        @Param({"200"})
+        int downstream;
+
+        CellSink<Cell<Integer>> cc;
+        Cell<Integer> deeper;
+        Listener listeners;
+        int out;
+
+        // Start again each iteration, so the chain doesn't grow without limit.
+        @Setup(Level.Iteration)
+        public void setUp() {
+            TransactionDomain d = new TransactionDomain();
+            deeper = new StreamSink<Integer>(d).hold(0);
+            cc = new CellSink<Cell<Integer>>(d, deeper);
+            Cell<Integer> outC = Cell.switchC(cc);
+            listeners = outC.listen(x -> { out = x; });
+            for (int k = 0; k < downstream; k++)
+                listeners = listeners.append(outC.map(x -> x + 1).listen(x -> { out = x; }));
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            listeners.unlisten();
+        }
+    }
+
+    @Benchmark
+    public int switchCAlternate(Alternate st) {
+        st.cc.send((st.i++ & 1) == 0 ? st.c2 : st.c1);
+        return st.out;
+    }
+
+    @Benchmark
+    public int switchSAlternate(Alternate st) {
+        st.cs.send((st.i++ & 1) == 0 ? st.s2 : st.s1);
+        return st.out;
+    }
+
+    @Benchmark
+    public int switchCDeeper(Deeper st) {
+        st.deeper = st.deeper.map(x -> x + 1);
+        st.cc.send(st.deeper);
+        return st.out;
+    }
+}
@@ -0,0 +1,82 @@
+package nz.sodium.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.TransactionDomain;
+import nz.sodium.time.MillisecondsTimerSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Alarms from TimerSystem.at(): moving a pending alarm, and the time from setting an
+ * alarm that is already due to it firing.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimerBenchmark {
+    static final Runnable NOTHING = () -> {};
+
+    TransactionDomain domain;
+    MillisecondsTimerSystem sys;
+    CellSink<Optional<Long>> pending;
+    CellSink<Optional<Long>> due;
+    Listener listeners;
+    volatile long fired;
+    long i;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = domain = new TransactionDomain();
+        sys = new MillisecondsTimerSystem(d);
+        pending = new CellSink<Optional<Long>>(d, Optional.<Long>empty());
+        due = new CellSink<Optional<Long>>(d, Optional.<Long>empty());
+        listeners = sys.at(pending).listen(t -> {})
+            .append(sys.at(due).listen(t -> { fired++; }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        listeners.unlisten();
+    }
+
+    /**
+     * Cancels the alarm and sets it again an hour from now, so it never fires.
+     */
+    @Benchmark
+    public long reschedule() {
+        long t = System.currentTimeMillis() + 3600000L + (i++ & 1023);
+        pending.send(Optional.of(t));
+        return t;
+    }
+
+    /**
+     * Sets an alarm for a time that has already passed, and runs empty transactions
+     * until it has fired. The timer fires either on the timer thread or when the next
+     * transaction starts, whichever comes first.
+     */
+    @Benchmark
+    public long fireDue() {
+        long before = fired;
+        due.send(Optional.of(System.currentTimeMillis() - 1000L));
+        while (fired == before)
+            domain.runVoid(NOTHING);
+        return fired;
+    }
+}
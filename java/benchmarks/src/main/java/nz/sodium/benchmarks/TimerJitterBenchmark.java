@@ -0,0 +1,72 @@
+package nz.sodium.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.TransactionDomain;
+import nz.sodium.time.MillisecondsTimerSystem;
+import nz.sodium.time.NanosecondsTimerSystem;
+import nz.sodium.time.TimerSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How punctual alarms are, for the millisecond timer system and the nanosecond one with
+ * and without spinning. Each invocation sets an alarm 1 ms ahead and waits for it to
+ * fire, so the SampleTime percentiles less 1000 us are how late it was. The millisecond
+ * clock can only set it for the next millisecond, which is up to 1 ms sooner.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimerJitterBenchmark {
+    @Param({"milliseconds", "nanoseconds", "nanoseconds+spin"})
+    String impl;
+
+    boolean millis;
+    CellSink<Optional<Long>> alarm;
+    LinkedBlockingQueue<Long> fired;
+    Listener l;
+
+    @Setup
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        millis = impl.equals("milliseconds");
+        TimerSystem<Long> sys =
+            millis ? new MillisecondsTimerSystem(d) :
+            impl.equals("nanoseconds") ? new NanosecondsTimerSystem(d, 0) :
+                                         new NanosecondsTimerSystem(d, 100000);
+        alarm = new CellSink<Optional<Long>>(d, Optional.<Long>empty());
+        fired = new LinkedBlockingQueue<Long>();
+        l = sys.at(alarm).listen(t -> { fired.offer(t); });
+    }
+
+    @TearDown
+    public void tearDown() {
+        l.unlisten();
+    }
+
+    @Benchmark
+    public long fire() throws InterruptedException {
+        alarm.send(Optional.of(millis ? System.currentTimeMillis() + 1
+                                      : System.nanoTime() + 1000000));
+        return fired.take();
+    }
+}
@@ -0,0 +1,83 @@
+package nz.sodium.benchmarks;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.TransactionDomain;
+import nz.sodium.time.MillisecondsTimerSystem;
+import nz.sodium.time.TimerSystem;
+import nz.sodium.time.TimingWheelTimerSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the timing wheel with the TreeSet in the millisecond timer system, with
+ * many alarms outstanding, by moving a random one to a random time in the next hour,
+ * which is the pattern of alarms that keep being pushed back.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimerWheelBenchmark {
+    static final long HOUR = 60L * 60 * 1000;
+
+    @Param({"1000", "100000"})
+    int alarms;
+
+    @Param({"treeset", "wheel1ms", "wheel10ms"})
+    String impl;
+
+    CellSink<Optional<Long>>[] sinks;
+    Listener[] listeners;
+    Random rng;
+    long base;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        TransactionDomain d = new TransactionDomain();
+        TimerSystem<Long> sys =
+            impl.equals("treeset") ? new MillisecondsTimerSystem(d) :
+            impl.equals("wheel1ms") ? new TimingWheelTimerSystem(d, 1) :
+                                      new TimingWheelTimerSystem(d, 10);
+        rng = new Random(1);
+        // Far enough ahead that none of them fire during the run.
+        base = System.currentTimeMillis() + HOUR;
+        sinks = new CellSink[alarms];
+        listeners = new Listener[alarms];
+        for (int i = 0; i < alarms; i++) {
+            sinks[i] = new CellSink<Optional<Long>>(d, Optional.of(base + rng.nextInt((int)HOUR)));
+            listeners[i] = sys.at(sinks[i]).listen(t -> {});
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Listener l : listeners)
+            l.unlisten();
+    }
+
+    @Benchmark
+    public long reschedule() {
+        long t = base + rng.nextInt((int)HOUR);
+        sinks[rng.nextInt(alarms)].send(Optional.of(t));
+        return t;
+    }
+}
@@ -0,0 +1,211 @@
+package nz.sodium;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A prioritized queue that keeps a FIFO bucket of entries for each rank. Ranks are
+ * small in practice, so they index an array of buckets directly, with a sorted map for
+ * the rare ranks that are too big for that.
+ * <P>
+ * Ranks only ever increase, so instead of re-generating the queue when they change, an
+ * entry is checked against its node's rank when it comes out, and if the node's rank
+ * has been raised in the meantime, it's moved to the bucket where it now belongs.
+ * <P>
+ * Entries are recycled once they have been run, so a queue that has warmed up
+ * doesn't allocate.
+ */
+final class BucketPrioritizedQueue extends PrioritizedQueue {
+    private static final int MAX_DENSE = 1 << 16;
+
+    private static final class Entry {
+        Node node;
+        // Either an action, or a value to fire to a listener target.
+        Handler<Transaction> action;
+        Node.Target target;
+        Object value;
+        long rank;  // The rank of the bucket the entry is in
+        long seq;
+        Entry next;
+    }
+
+    private static final class Bucket {
+        Entry head;
+        Entry tail;
+
+        void append(Entry e) {
+            if (tail == null)
+                head = e;
+            else
+                tail.next = e;
+            tail = e;
+        }
+
+        /**
+         * Insert an entry in chronological order among the existing ones.
+         */
+        void insert(Entry e) {
+            if (tail == null || tail.seq < e.seq) {
+                append(e);
+                return;
+            }
+            if (head.seq > e.seq) {
+                e.next = head;
+                head = e;
+                return;
+            }
+            Entry prev = head;
+            while (prev.next.seq < e.seq)
+                prev = prev.next;
+            e.next = prev.next;
+            prev.next = e;
+        }
+
+        Entry poll() {
+            Entry e = head;
+            head = e.next;
+            if (head == null)
+                tail = null;
+            e.next = null;
+            return e;
+        }
+    }
+
+    private Bucket[] dense = new Bucket[64];
+    // There are no entries in dense buckets below this index.
+    private int lowest = 0;
+    private int denseSize = 0;
+    // Node.NULL's rank is the highest, and it is very common, so it gets its own bucket.
+    private final Bucket nullRank = new Bucket();
+    private TreeMap<Long, Bucket> sparse;
+    private int size = 0;
+    private long nextSeq;
+    // Entries that have been run, linked through next, ready for re-use.
+    private Entry free;
+
+    @Override
+    void add(Node rank, Handler<Transaction> action) {
+        Entry e = entry(rank);
+        e.action = action;
+        append(e);
+    }
+
+    @Override
+    void add(Node.Target target, Object value) {
+        Entry e = entry(target.node);
+        e.target = target;
+        e.value = value;
+        append(e);
+    }
+
+    private Entry entry(Node node) {
+        Entry e = free;
+        if (e == null)
+            e = new Entry();
+        else {
+            free = e.next;
+            e.next = null;
+        }
+        e.node = node;
+        e.rank = node.rank();
+        e.seq = nextSeq++;
+        return e;
+    }
+
+    private void append(Entry e) {
+        bucket(e.rank).append(e);
+        added(e.rank);
+    }
+
+    @Override
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    void runNext(Transaction trans) {
+        Entry e;
+        while (true) {
+            e = poll();
+            long r = e.node.rank();
+            if (r == e.rank)
+                break;
+            // The node's rank has been raised since the entry was added.
+            e.rank = r;
+            bucket(r).insert(e);
+            added(r);
+        }
+        Handler<Transaction> action = e.action;
+        Node.Target target = e.target;
+        Object value = e.value;
+        // Recycle the entry before running it, because running it may add more.
+        e.node = null;
+        e.action = null;
+        e.target = null;
+        e.value = null;
+        e.next = free;
+        free = e;
+        if (action != null)
+            action.run(trans);
+        else
+            StreamWithSend.fire(trans, target, value);
+    }
+
+    @Override
+    void ranksChanged() {
+        // Entries are checked against their node's rank as they are removed.
+    }
+
+    private Bucket bucket(long r) {
+        if (r < MAX_DENSE) {
+            int ix = (int)r;
+            if (ix >= dense.length) {
+                int len = dense.length;
+                while (len <= ix) len *= 2;
+                Bucket[] neu = new Bucket[len];
+                System.arraycopy(dense, 0, neu, 0, dense.length);
+                dense = neu;
+            }
+            Bucket b = dense[ix];
+            if (b == null)
+                dense[ix] = b = new Bucket();
+            return b;
+        }
+        if (r == Long.MAX_VALUE)
+            return nullRank;
+        if (sparse == null)
+            sparse = new TreeMap<Long, Bucket>();
+        Bucket b = sparse.get(r);
+        if (b == null)
+            sparse.put(r, b = new Bucket());
+        return b;
+    }
+
+    private void added(long r) {
+        size++;
+        if (r < MAX_DENSE) {
+            if (denseSize == 0 || r < lowest)
+                lowest = (int)r;
+            denseSize++;
+        }
+    }
+
+    private Entry poll() {
+        size--;
+        if (denseSize != 0) {
+            while (dense[lowest] == null || dense[lowest].head == null)
+                lowest++;
+            denseSize--;
+            return dense[lowest].poll();
+        }
+        if (sparse != null && !sparse.isEmpty()) {
+            Map.Entry<Long, Bucket> first = sparse.firstEntry();
+            Bucket b = first.getValue();
+            Entry e = b.poll();
+            if (b.head == null)
+                sparse.remove(first.getKey());
+            return e;
+        }
+        return nullRank.poll();
+    }
+}
@@ -1,5 +1,8 @@
 package nz.sodium;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -9,9 +12,49 @@ public class Cell<A> {
 	final Stream<A> str;
 	A value;
 	A valueUpdate;
+	// The values the cell had as of the last few transactions that updated it, newest
+	// first, for reading it without a transaction. It's null for a CellLoop that
+	// hasn't been looped yet.
+	volatile Version<A> committed;
 	private Listener cleanup;
     Lazy<A> lazyInitValue;  // Used by LazyCell
 
+	/**
+	 * The value a cell was given by the transaction with the specified version, or its
+	 * initial value if the version is 0.
+	 */
+	static final class Version<A> {
+	    Version(long version, A value, Lazy<A> lazyValue, Version<A> prev) {
+	        this.version = version;
+	        this.value = value;
+	        this.lazyValue = lazyValue;
+	        this.prev = prev;
+	    }
+	    final long version;
+	    private final A value;
+	    private final Lazy<A> lazyValue;
+	    // Dropped once there are enough newer versions, so a reader that's too far
+	    // behind will find it missing and have to start again, unless a snapshot has
+	    // pinned the domain's versions.
+	    volatile Version<A> prev;
+
+	    /**
+	     * False if the value is still a lazy initial value. Evaluating it can run code
+	     * that expects to hold the domain's lock, so it must only be read inside a
+	     * transaction.
+	     */
+	    boolean isConcrete() {
+	        return lazyValue == null;
+	    }
+
+	    A value() {
+	        return lazyValue != null ? lazyValue.get() : value;
+	    }
+	}
+
+	// How many versions of its value a cell keeps.
+	private static final int MAX_VERSIONS = 4;
+
 	/**
 	 * A cell with a constant value.
 	 */
@@ -19,13 +62,16 @@ public class Cell<A> {
     {
     	this.str = new Stream<A>();
     	this.value = value;
+    	this.committed = new Version<A>(0, value, null, null);
     }
 
     Cell(final Stream<A> str, A initValue)
     {
     	this.str = str;
     	this.value = initValue;
-    	Transaction.run(new Handler<Transaction>() {
+    	if (initValue != null)
+    	    this.committed = new Version<A>(0, initValue, null, null);
+    	TransactionDomain.of(str).run(new Handler<Transaction>() {
     		public void run(Transaction trans1) {
 	    		Cell.this.cleanup = str.listen(Node.NULL, trans1, new TransactionHandler<A>() {
 	    			public void run(Transaction trans2, A a) {
@@ -33,6 +79,7 @@ public class Cell<A> {
 			    			trans2.last(new Runnable() {
 			    				public void run() {
 				    				Cell.this.value = Cell.this.valueUpdate;
+				    				commit(trans2, Cell.this.value);
 				    				Cell.this.lazyInitValue = null;
 				    				Cell.this.valueUpdate = null;
 				    			}
@@ -41,6 +88,7 @@ public class Cell<A> {
 			    		Cell.this.valueUpdate = a;
 			    	}
 	    		}, false);
+	    		Reaper.register(Cell.this).add(Cell.this.cleanup.unlinker());
     		}
     	});
     }
@@ -62,22 +110,66 @@ public class Cell<A> {
      * {@link Stream#merge(Stream, Lambda2)}.
      * It should generally be avoided in favour of {@link listen(Handler)} so you don't
      * miss any updates, but in many circumstances it makes sense.
+     * <p>
+     * Outside of a transaction it gives the value as of the last transaction that has
+     * completed, without taking any locks or waiting for a transaction that's running,
+     * so it doesn't start a transaction or run {@link Transaction#onStart(Runnable)} hooks.
+     * The exception is a lazy initial value that hasn't been worked out yet, which is
+     * worked out in a transaction the first time it's sampled.
      */
     public final A sample()
     {
-        return Transaction.apply(new Lambda1<Transaction, A>() {
+        if (TransactionDomain.active() == null) {
+            Version<A> v = committed;
+            if (v != null && v.isConcrete())
+                return v.value();
+        }
+        return TransactionDomain.of(str).apply(new Lambda1<Transaction, A>() {
         	public A apply(Transaction trans) {
         		return sampleNoTrans();
         	}
         });
     }
 
+    /**
+     * Record the value the cell has been given by the specified transaction, so it can
+     * be read without a transaction.
+     */
+    private void commit(Transaction trans, A a)
+    {
+        Version<A> v = new Version<A>(trans.version(), a, null, committed);
+        if (trans.domain.versionsPinned.get() == 0) {
+            Version<A> oldest = v;
+            for (int i = 1; i < MAX_VERSIONS && oldest != null; i++)
+                oldest = oldest.prev;
+            if (oldest != null)
+                oldest.prev = null;
+        }
+        committed = v;
+    }
+
+    /**
+     * The value the cell had as of the transaction with the specified version, or
+     * null if it has been updated too many times since then.
+     */
+    final Version<A> committedAt(long version)
+    {
+        Version<A> v = committed;
+        if (v == null)
+            throw new RuntimeException("CellLoop sampled before it was looped");
+        while (v != null && v.version > version)
+            v = v.prev;
+        return v;
+    }
+
     private static class LazySample<A> {
         LazySample(Cell<A> cell) {
             this.cell = cell;
         }
-        Cell<A> cell;
-        boolean hasValue;
+        // Volatile because the Lazy may be read on another thread while the
+        // transaction is finishing.
+        volatile Cell<A> cell;
+        volatile boolean hasValue;
         A value;
     }
 
@@ -88,7 +180,7 @@ public class Cell<A> {
      */
     public final Lazy<A> sampleLazy() {
         final Cell<A> me = this;
-        return Transaction.apply(new Lambda1<Transaction, Lazy<A>>() {
+        return TransactionDomain.of(str).apply(new Lambda1<Transaction, Lazy<A>>() {
         	public Lazy<A> apply(Transaction trans) {
         	    return me.sampleLazy(trans);
             }
@@ -107,10 +199,14 @@ public class Cell<A> {
         });
         return new Lazy<A>(new Lambda0<A>() {
             public A apply() {
-                if (s.hasValue)
+                // The cell is cleared after hasValue is set.
+                Cell<A> cell = s.cell;
+                if (cell == null || s.hasValue)
                     return s.value;
-                else
-                    return s.cell.sample();
+                else {
+                    Lazy.provisional();
+                    return cell.sample();
+                }
             }
         });
     }
@@ -127,7 +223,7 @@ public class Cell<A> {
 
     final Stream<A> value(Transaction trans1)
     {
-    	final StreamWithSend<Unit> sSpark = new StreamWithSend<Unit>();
+    	final StreamWithSend<Unit> sSpark = new StreamWithSend<Unit>(trans1.domain);
         trans1.prioritized(sSpark.node, new Handler<Transaction>() {
             public void run(Transaction trans2) {
                 sSpark.send(trans2, Unit.UNIT);
@@ -146,13 +242,39 @@ public class Cell<A> {
      */
 	public final <B> Cell<B> map(final Lambda1<A,B> f)
 	{
-		return Transaction.apply(new Lambda1<Transaction, Cell<B>>() {
+		return TransactionDomain.of(str).apply(new Lambda1<Transaction, Cell<B>>() {
 			public Cell<B> apply(Transaction trans) {
                 return updates(trans).map(f).holdLazy(trans, sampleLazy(trans).map(f));
             }
         });
 	}
 
+	/**
+	 * Return a cell whose updates are only output when the value is different from the
+	 * cell's current value, compared with {@link Object#equals(Object)}. Updates that
+	 * wouldn't change anything are dropped before they reach anything downstream.
+	 */
+	public final Cell<A> calm()
+	{
+	    return calm(Stream.<A>defaultEquals());
+	}
+
+	/**
+	 * A variant of {@link calm()} that uses the specified function to test whether two
+	 * values are equal.
+	 * @param equals Function that returns true if two values are equal. It must be
+	 *    <em>referentially transparent</em>.
+	 */
+	public final Cell<A> calm(final Lambda2<A,A,Boolean> equals)
+	{
+		return TransactionDomain.of(str).apply(new Lambda1<Transaction, Cell<A>>() {
+			public Cell<A> apply(Transaction trans) {
+			    Lazy<A> init = sampleLazy(trans);
+                return updates(trans).calm(trans, init, equals).holdLazy(trans, init);
+            }
+        });
+	}
+
 	/**
 	 * Lift a binary function into cells, so the returned Cell always reflects the specified
 	 * function applied to the input cells' values.
@@ -160,17 +282,12 @@ public class Cell<A> {
 	 */
 	public final <B,C> Cell<C> lift(Cell<B> b, final Lambda2<A,B,C> fn)
 	{
-		Lambda1<A, Lambda1<B,C>> ffa = new Lambda1<A, Lambda1<B,C>>() {
-			public Lambda1<B,C> apply(final A aa) {
-				return new Lambda1<B,C>() {
-					public C apply(B bb) {
-						return fn.apply(aa,bb);
-					}
-				};
+		return liftN(new Cell<?>[] { this, b }, new Lambda1<Object[], C>() {
+			@SuppressWarnings("unchecked")
+			public C apply(Object[] v) {
+				return fn.apply((A)v[0], (B)v[1]);
 			}
-		};
-		Cell<Lambda1<B,C>> bf = this.map(ffa);
-		return this.apply(bf, b);
+		});
 	}
 
 	/**
@@ -180,21 +297,12 @@ public class Cell<A> {
 	 */
 	public final <B,C,D> Cell<D> lift(Cell<B> b, Cell<C> c, final Lambda3<A,B,C,D> fn)
 	{
-		Lambda1<A, Lambda1<B, Lambda1<C,D>>> ffa = new Lambda1<A, Lambda1<B, Lambda1<C,D>>>() {
-			public Lambda1<B, Lambda1<C,D>> apply(final A aa) {
-				return new Lambda1<B, Lambda1<C,D>>() {
-					public Lambda1<C,D> apply(final B bb) {
-						return new Lambda1<C,D>() {
-							public D apply(C cc) {
-								return fn.apply(aa,bb,cc);
-							}
-						};
-					}
-				};
+		return liftN(new Cell<?>[] { this, b, c }, new Lambda1<Object[], D>() {
+			@SuppressWarnings("unchecked")
+			public D apply(Object[] v) {
+				return fn.apply((A)v[0], (B)v[1], (C)v[2]);
 			}
-		};
-		Cell<Lambda1<B, Lambda1<C, D>>> bf = this.map(ffa);
-		return this.apply(apply(bf, b), c);
+		});
 	}
 
 	/**
@@ -204,25 +312,12 @@ public class Cell<A> {
 	 */
 	public final <B,C,D,E> Cell<E> lift(Cell<B> b, Cell<C> c, Cell<D> d, final Lambda4<A,B,C,D,E> fn)
 	{
-		Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D,E>>>> ffa = new Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D,E>>>>() {
-			public Lambda1<B, Lambda1<C, Lambda1<D,E>>> apply(final A aa) {
-				return new Lambda1<B, Lambda1<C, Lambda1<D,E>>>() {
-					public Lambda1<C, Lambda1<D, E>> apply(final B bb) {
-						return new Lambda1<C, Lambda1<D,E>>() {
-							public Lambda1<D,E> apply(final C cc) {
-                                return new Lambda1<D, E>() {
-                                    public E apply(D dd) {
-                                        return fn.apply(aa,bb,cc,dd);
-                                    }
-                                };
-							}
-						};
-					}
-				};
+		return liftN(new Cell<?>[] { this, b, c, d }, new Lambda1<Object[], E>() {
+			@SuppressWarnings("unchecked")
+			public E apply(Object[] v) {
+				return fn.apply((A)v[0], (B)v[1], (C)v[2], (D)v[3]);
 			}
-		};
-		Cell<Lambda1<B, Lambda1<C, Lambda1<D, E>>>> bf = this.map(ffa);
-		return this.apply(apply(apply(bf, b), c), d);
+		});
 	}
 
 	/**
@@ -232,29 +327,12 @@ public class Cell<A> {
 	 */
 	public final <B,C,D,E,F> Cell<F> lift(Cell<B> b, Cell<C> c, Cell<D> d, Cell<E> e, final Lambda5<A,B,C,D,E,F> fn)
 	{
-		Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, F>>>>> ffa = new Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D,Lambda1<E, F>>>>>() {
-			public Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, F>>>> apply(final A aa) {
-				return new Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, F>>>>() {
-					public Lambda1<C, Lambda1<D, Lambda1<E, F>>> apply(final B bb) {
-						return new Lambda1<C, Lambda1<D, Lambda1<E, F>>>() {
-							public Lambda1<D, Lambda1<E, F>> apply(final C cc) {
-                                return new Lambda1<D, Lambda1<E, F>>() {
-                                    public Lambda1<E, F> apply(final D dd) {
-                                        return new Lambda1<E, F>() {
-                                            public F apply(E ee) {
-                                                return fn.apply(aa,bb,cc,dd,ee);
-                                            }
-                                        };
-                                    }
-                                };
-							}
-						};
-					}
-				};
+		return liftN(new Cell<?>[] { this, b, c, d, e }, new Lambda1<Object[], F>() {
+			@SuppressWarnings("unchecked")
+			public F apply(Object[] v) {
+				return fn.apply((A)v[0], (B)v[1], (C)v[2], (D)v[3], (E)v[4]);
 			}
-		};
-		Cell<Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, F>>>>> bf = this.map(ffa);
-		return this.apply(apply(apply(apply(bf, b), c), d), e);
+		});
 	}
 
 	/**
@@ -264,33 +342,105 @@ public class Cell<A> {
 	 */
 	public final <B,C,D,E,F,G> Cell<G> lift(Cell<B> b, Cell<C> c, Cell<D> d, Cell<E> e, Cell<F> f, final Lambda6<A,B,C,D,E,F,G> fn)
 	{
-		Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>>>> ffa = new Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D,Lambda1<E, Lambda1<F, G>>>>>>() {
-			public Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>>> apply(final A aa) {
-				return new Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>>>() {
-					public Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>> apply(final B bb) {
-						return new Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>>() {
-							public Lambda1<D, Lambda1<E, Lambda1<F, G>>> apply(final C cc) {
-                                return new Lambda1<D, Lambda1<E, Lambda1<F, G>>>() {
-                                    public Lambda1<E, Lambda1<F, G>> apply(final D dd) {
-                                        return new Lambda1<E, Lambda1<F, G>>() {
-                                            public Lambda1<F, G> apply(final E ee) {
-                                                return new Lambda1<F, G>() {
-                                                    public G apply(final F ff) {
-                                                        return fn.apply(aa,bb,cc,dd,ee,ff);
-                                                    }
-                                                };
-                                            }
-                                        };
-                                    }
-                                };
-							}
-						};
-					}
-				};
+		return liftN(new Cell<?>[] { this, b, c, d, e, f }, new Lambda1<Object[], G>() {
+			@SuppressWarnings("unchecked")
+			public G apply(Object[] v) {
+				return fn.apply((A)v[0], (B)v[1], (C)v[2], (D)v[3], (E)v[4], (F)v[5]);
 			}
-		};
-		Cell<Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>>>> bf = this.map(ffa);
-		return this.apply(apply(apply(apply(apply(bf, b), c), d), e), f);
+		});
+	}
+
+	/**
+	 * Combine the values of all the cells in a collection, in order, with an associative
+	 * function, so the returned cell always reflects f(...f(f(a, b), c)..., z).
+	 * Unlike folding {@link lift(Cell, Lambda2)} over the collection, which makes a chain
+	 * as long as the collection, the values are combined in a balanced tree, so when one
+	 * of n cells changes, f is called O(log n) times.
+	 * @param zero The value when the collection is empty.
+	 * @param f Function to combine two values. It must be associative and
+	 *   <em>referentially transparent</em>, but it doesn't need to be commutative.
+	 */
+	public static <A> Cell<A> liftAll(Collection<? extends Cell<A>> cells, A zero, Lambda2<A,A,A> f)
+	{
+	    return LiftAll.liftAll(new Cell<List<Cell<A>>>(new ArrayList<Cell<A>>(cells)), zero, f);
+	}
+
+	/**
+	 * A variant of {@link liftAll(Collection, Object, Lambda2)} where the cells to
+	 * combine can change over time. Appending and removing cells only recombines the
+	 * values that are affected, and cells that stay in the collection aren't listened to
+	 * again.
+	 * <P>
+	 * The collection is sampled when liftAll is called, so it can't be a {@link CellLoop}
+	 * that hasn't been looped yet.
+	 */
+	public static <A> Cell<A> liftAll(Cell<? extends Collection<? extends Cell<A>>> cells, A zero, Lambda2<A,A,A> f)
+	{
+	    return LiftAll.liftAll(cells, zero, f);
+	}
+
+	/**
+	 * Lift a function of the values of any number of cells, which is passed them in an
+	 * array. Unlike a chain of {@link apply(Cell, Cell)}, this has a single node, keeps
+	 * the latest value of each input in one flat array, and calls fn at most once per
+	 * transaction however many of the inputs changed. fn must not keep the array.
+	 */
+	static <B> Cell<B> liftN(final Cell<?>[] cells, final Lambda1<Object[], B> fn)
+	{
+	    TransactionDomain domain = null;
+	    for (Cell<?> c : cells)
+	        if (c.str.domain != null) {
+	            domain = c.str.domain;
+	            break;
+	        }
+	    return (domain != null ? domain : TransactionDomain.current()).apply(new Lambda1<Transaction, Cell<B>>() {
+	        public Cell<B> apply(Transaction trans0) {
+	            final StreamWithSend<B> out = new StreamWithSend<B>(trans0.domain);
+	            final Object[] values = new Object[cells.length];
+	            final boolean[] updated = new boolean[cells.length];
+	            final Handler<Transaction> send = new Handler<Transaction>() {
+	                public void run(Transaction trans2) {
+	                    // An input we haven't had an update from still has the value it
+	                    // had when we started listening.
+	                    for (int i = 0; i < cells.length; i++)
+	                        if (!updated[i])
+	                            values[i] = cells[i].sampleNoTrans();
+	                    scheduled = false;
+	                    out.send(trans2, fn.apply(values));
+	                }
+	            };
+	            Listener l = null;
+	            for (int i = 0; i < cells.length; i++) {
+	                final int ix = i;
+	                @SuppressWarnings("unchecked")
+	                Stream<Object> in = (Stream<Object>)cells[i].str;
+	                // The inputs are delivered at the rank of out's node, and the send
+	                // is added after all of them, so it sees every input that changed.
+	                Listener li = in.listen(out.node, trans0, new TransactionHandler<Object>() {
+	                    public void run(Transaction trans1, Object a) {
+	                        values[ix] = a;
+	                        updated[ix] = true;
+	                        if (!scheduled) {
+	                            scheduled = true;
+	                            trans1.prioritized(out.node, send);
+	                        }
+	                    }
+	                }, false);
+	                l = l == null ? li : l.append(li);
+	            }
+	            return out.unsafeAddCleanup(l).holdLazy(new Lazy<B>(new Lambda0<B>() {
+	                public B apply() {
+	                    Object[] initial = new Object[cells.length];
+	                    for (int i = 0; i < cells.length; i++)
+	                        initial[i] = cells[i].sampleNoTrans();
+	                    return fn.apply(initial);
+	                }
+	            }));
+	        }
+
+	        // True once the send has been added to the current transaction.
+	        private boolean scheduled;
+	    });
 	}
 
 	/**
@@ -299,9 +449,9 @@ public class Cell<A> {
 	 */
 	public static <A,B> Cell<B> apply(final Cell<Lambda1<A,B>> bf, final Cell<A> ba)
 	{
-    	return Transaction.apply(new Lambda1<Transaction, Cell<B>>() {
+    	return TransactionDomain.of(bf.str, ba.str).apply(new Lambda1<Transaction, Cell<B>>() {
     		public Cell<B> apply(Transaction trans0) {
-                final StreamWithSend<B> out = new StreamWithSend<B>();
+                final StreamWithSend<B> out = new StreamWithSend<B>(trans0.domain);
 
                 class ApplyHandler implements Handler<Transaction> {
                     ApplyHandler(Transaction trans0) {
@@ -361,49 +511,113 @@ public class Cell<A> {
 	 */
 	public static <A> Cell<A> switchC(final Cell<Cell<A>> bba)
 	{
-	    return Transaction.apply(new Lambda1<Transaction, Cell<A>>() {
+	    return TransactionDomain.of(bba.str).apply(new Lambda1<Transaction, Cell<A>>() {
 	        public Cell<A> apply(Transaction trans0) {
                 Lazy<A> za = bba.sampleLazy().map(new Lambda1<Cell<A>, A>() {
                     public A apply(Cell<A> ba) {
                         return ba.sample();
                     }
                 });
-                final StreamWithSend<A> out = new StreamWithSend<A>();
-                TransactionHandler<Cell<A>> h = new TransactionHandler<Cell<A>>() {
-                    private Listener currentListener;
-                    @Override
-                    public void run(Transaction trans2, Cell<A> ba) {
-                        // Note: If any switch takes place during a transaction, then the
-                        // lastFiringOnly() below will always cause a sample to be fetched
-                        // from the one we just switched to. So anything from the old input cell
-                        // that might have happened during this transaction will be suppressed.
-                        if (currentListener != null)
-                            currentListener.unlisten();
-                        currentListener = ba.value(trans2).listen(out.node, trans2, new TransactionHandler<A>() {
-                            public void run(Transaction trans3, A a) {
-                                out.send(trans3, a);
-                            }
-                        }, false);
-                    }
-
-                    @Override
-                    protected void finalize() throws Throwable {
-                        if (currentListener != null)
-                            currentListener.unlisten();
+                final StreamWithSend<A> out = new StreamWithSend<A>(trans0.domain);
+                final SwitchCHandler<A> h = new SwitchCHandler<A>(out);
+                // Attach to the initial inner cell once any loops have been looped.
+                trans0.prioritized(out.node, new Handler<Transaction>() {
+                    public void run(Transaction trans1) {
+                        h.attach(trans1, bba.sampleNoTrans());
                     }
-                };
-                Listener l1 = bba.value(trans0).listen_(out.node, h);
-                return out.lastFiringOnly(trans0).unsafeAddCleanup(l1).holdLazy(za);
+                });
+                Listener l1 = bba.updates(trans0).listen(out.node, trans0, h, false);
+                return out.unsafeAddCleanup(l1).holdLazy(trans0, za);
             }
         });
 	}
-	
+
+	/**
+	 * The outer cell's handler for {@link switchC(Cell)}. It listens directly to the
+	 * updates of the inner cell it's switched to, and when it switches, outputs the new
+	 * inner cell's value. Only the last value it receives in a transaction is output,
+	 * so a switch supersedes anything the old inner cell did in the same transaction.
+	 */
+	private static final class SwitchCHandler<A> implements TransactionHandler<Cell<A>> {
+	    SwitchCHandler(StreamWithSend<A> out) {
+	        this.coalescer = new SwitchCoalescer<A>(out);
+	    }
+	    private final SwitchCleanup cleanup = new SwitchCleanup(this);
+	    // The inner cell's listener mustn't refer to this, or the inner cell would keep
+	    // this handler alive and the cleanup would never run.
+	    private final SwitchCoalescer<A> coalescer;
+	    private Listener currentListener;
+
+	    void attach(Transaction trans, Cell<A> ba) {
+	        if (currentListener != null)
+	            currentListener.unlisten();
+	        // This replays anything the new inner cell has already output in this
+	        // transaction.
+	        currentListener = cleanup.attached(ba.updates(trans).listen(
+	            coalescer.out.node, trans, coalescer, false));
+	    }
+
+	    @Override
+	    public void run(Transaction trans, Cell<A> ba) {
+	        coalescer.sample(ba);
+	        attach(trans, ba);
+	        coalescer.reschedule(trans);
+	    }
+	}
+
+	private static final class SwitchCoalescer<A> implements TransactionHandler<A> {
+	    SwitchCoalescer(StreamWithSend<A> out) {
+	        this.out = out;
+	    }
+	    final StreamWithSend<A> out;
+	    // The value to output, or if sampleFrom is set, the cell to sample it from.
+	    private A pending;
+	    private Cell<A> sampleFrom;
+	    private boolean scheduled;
+	    // Identifies the flush that's currently scheduled, so a superseded one does
+	    // nothing.
+	    private int flushId;
+
+	    @Override
+	    public void run(Transaction trans, A a) {
+	        pending = a;
+	        sampleFrom = null;
+	        if (!scheduled)
+	            reschedule(trans);
+	    }
+
+	    void sample(Cell<A> ba) {
+	        pending = null;
+	        sampleFrom = ba;
+	    }
+
+	    /**
+	     * Schedule the output after everything already queued at this rank, which
+	     * includes any replayed firings of an inner cell we've just switched to.
+	     */
+	    void reschedule(Transaction trans) {
+	        scheduled = true;
+	        final int id = ++flushId;
+	        trans.prioritized(out.node, new Handler<Transaction>() {
+	            public void run(Transaction trans2) {
+	                if (id != flushId)
+	                    return;
+	                A a = sampleFrom != null ? sampleFrom.sampleNoTrans() : pending;
+	                pending = null;
+	                sampleFrom = null;
+	                scheduled = false;
+	                out.send(trans2, a);
+	            }
+	        });
+	    }
+	}
+
 	/**
 	 * Unwrap a stream inside a cell to give a time-varying stream implementation.
 	 */
 	public static <A> Stream<A> switchS(final Cell<Stream<A>> bea)
 	{
-        return Transaction.apply(new Lambda1<Transaction, Stream<A>>() {
+        return TransactionDomain.of(bea.str).apply(new Lambda1<Transaction, Stream<A>>() {
         	public Stream<A> apply(final Transaction trans) {
                 return switchS(trans, bea);
         	}
@@ -412,14 +626,15 @@ public class Cell<A> {
 
 	private static <A> Stream<A> switchS(final Transaction trans1, final Cell<Stream<A>> bea)
 	{
-        final StreamWithSend<A> out = new StreamWithSend<A>();
+        final StreamWithSend<A> out = new StreamWithSend<A>(trans1.domain);
         final TransactionHandler<A> h2 = new TransactionHandler<A>() {
         	public void run(Transaction trans2, A a) {
 	            out.send(trans2, a);
 	        }
         };
         TransactionHandler<Stream<A>> h1 = new TransactionHandler<Stream<A>>() {
-            private Listener currentListener = bea.sampleNoTrans().listen(out.node, trans1, h2, false);
+            private final SwitchCleanup cleanup = new SwitchCleanup(this);
+            private Listener currentListener = cleanup.attached(bea.sampleNoTrans().listen(out.node, trans1, h2, false));
 
             @Override
             public void run(final Transaction trans2, final Stream<A> ea) {
@@ -427,25 +642,35 @@ public class Cell<A> {
                 	public void run() {
 	                    if (currentListener != null)
 	                        currentListener.unlisten();
-	                    currentListener = ea.listen(out.node, trans2, h2, true);
+	                    currentListener = cleanup.attached(ea.listen(out.node, trans2, h2, true));
 	                }
                 });
             }
-
-            @Override
-            protected void finalize() throws Throwable {
-                if (currentListener != null)
-                    currentListener.unlisten();
-            }
         };
         Listener l1 = bea.updates(trans1).listen(out.node, trans1, h1, false);
         return out.unsafeAddCleanup(l1);
 	}
 
-	@Override
-	protected void finalize() throws Throwable {
-	    if (cleanup != null)
-            cleanup.unlisten();
+	/**
+	 * Unlistens the listener that a switch's handler is currently attached to, once
+	 * the handler has been garbage collected.
+	 */
+	private static final class SwitchCleanup extends Listener {
+	    SwitchCleanup(Object handler) {
+	        Reaper.register(handler).add(this);
+	    }
+	    private volatile Listener unlinker;
+
+	    Listener attached(Listener l) {
+	        unlinker = l.unlinker();
+	        return l;
+	    }
+
+	    public void unlisten() {
+	        Listener u = unlinker;
+	        if (u != null)
+	            u.unlisten();
+	    }
 	}
 
 	/**
@@ -461,7 +686,7 @@ public class Cell<A> {
 	 *   your own primitives.
      */
 	public final Listener listen(final Handler<A> action) {
-        return Transaction.apply(new Lambda1<Transaction, Listener>() {
+        return TransactionDomain.of(str).apply(new Lambda1<Transaction, Listener>() {
         	public Listener apply(final Transaction trans) {
                 return value(trans).listen(action);
 			}
@@ -1,7 +1,8 @@
 package nz.sodium;
 
 /**
- * A forward reference for a {@link Cell} equivalent to the Cell that is referenced. 
+ * A forward reference for a {@link Cell} equivalent to the Cell that is referenced.
+ * It belongs to the {@link TransactionDomain} of the transaction it was constructed in.
  */
 public final class CellLoop<A> extends LazyCell<A> {
     public CellLoop() {
@@ -17,10 +18,11 @@ public final class CellLoop<A> extends LazyCell<A> {
     public void loop(final Cell<A> a_out)
     {
         final CellLoop<A> me = this;
-        Transaction.apply(new Lambda1<Transaction, Unit>() {
+        TransactionDomain.of(str).apply(new Lambda1<Transaction, Unit>() {
         	public Unit apply(final Transaction trans) {
                 ((StreamLoop<A>)me.str).loop(a_out.updates(trans));
                 me.lazyInitValue = a_out.sampleLazy(trans);
+                me.committed = new Version<A>(0, null, me.lazyInitValue, null);
                 return Unit.UNIT;
             }
         });
@@ -14,6 +14,13 @@ public final class CellSink<A> extends Cell<A> {
     	super(new StreamSink<A>(), initValue);
     }
 
+    /**
+     * A variant of {@link CellSink(Object)} that belongs to the specified domain.
+     */
+    public CellSink(TransactionDomain domain, A initValue) {
+    	super(new StreamSink<A>(domain), initValue);
+    }
+
     /**
      * Construct a writable cell with the specified initial value. If multiple values are
      * sent in the same transaction, the specified function is used to combine them.
@@ -22,6 +29,13 @@ public final class CellSink<A> extends Cell<A> {
     	super(new StreamSink<A>(f), initValue);
     }
 
+    /**
+     * A variant of {@link CellSink(Object, Lambda2)} that belongs to the specified domain.
+     */
+    public CellSink(TransactionDomain domain, A initValue, Lambda2<A,A,A> f) {
+    	super(new StreamSink<A>(domain, f), initValue);
+    }
+
     /**
      * Send a value, modifying the value of the cell. send(A) may not be used inside
      * handlers registered with {@link Stream#listen(Handler)} or {@link Cell#listen(Handler)}.
@@ -33,4 +47,23 @@ public final class CellSink<A> extends Cell<A> {
     {
         ((StreamSink<A>)str).send(a);
     }
+
+    /**
+     * Send all the specified values in a single transaction. The value of the cell
+     * becomes the values combined as if send() had been called for each of them
+     * inside the same transaction.
+     * @see StreamSink#sendAll(Iterable)
+     */
+    public void sendAll(Iterable<? extends A> as)
+    {
+        ((StreamSink<A>)str).sendAll(as);
+    }
+
+    /**
+     * A variant of {@link sendAll(Iterable)} that takes an array.
+     */
+    public void sendAll(A[] as)
+    {
+        ((StreamSink<A>)str).sendAll(as);
+    }
 }
@@ -0,0 +1,45 @@
+package nz.sodium;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * A variant of {@link CellSink} for double values that doesn't box them.
+ */
+public final class DoubleCellSink extends DoubleCell {
+    /**
+     * Construct a writable cell with the specified initial value, which allows send()
+     * to be called once on it per transaction.
+     */
+    public DoubleCellSink(double initValue) {
+        super(new DoubleStreamSink(), initValue);
+    }
+
+    /**
+     * A variant of {@link DoubleCellSink(double)} that belongs to the specified domain.
+     */
+    public DoubleCellSink(TransactionDomain domain, double initValue) {
+        super(new DoubleStreamSink(domain), initValue);
+    }
+
+    /**
+     * Construct a writable cell with the specified initial value. If multiple values are
+     * sent in the same transaction, the specified function is used to combine them.
+     */
+    public DoubleCellSink(double initValue, DoubleBinaryOperator f) {
+        super(new DoubleStreamSink(f), initValue);
+    }
+
+    /**
+     * A variant of {@link DoubleCellSink(double, DoubleBinaryOperator)} that belongs to the specified domain.
+     */
+    public DoubleCellSink(TransactionDomain domain, double initValue, DoubleBinaryOperator f) {
+        super(new DoubleStreamSink(domain, f), initValue);
+    }
+
+    /**
+     * Send a value, modifying the value of the cell, like {@link CellSink#send(Object)}.
+     */
+    public void send(double a) {
+        ((DoubleStreamSink)str).send(a);
+    }
+}
@@ -0,0 +1,212 @@
+package nz.sodium;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleFunction;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A variant of {@link Stream} for double values that doesn't box them. The first value
+ * the stream fires in a transaction is kept in a field, and listeners are given the
+ * stream itself to fetch it from, so a pipeline of DoubleStreams and {@link DoubleCell}s
+ * doesn't allocate per event. Values after the first in the same transaction, which are
+ * rare, are boxed.
+ * <P>
+ * The functions passed to its methods must be <em>referentially transparent</em>.
+ */
+public class DoubleStream {
+    final StreamWithSend<Object> str;
+    // The first value fired in the current transaction.
+    private double value;
+
+    /**
+     * A stream that never fires.
+     */
+    public DoubleStream() {
+        this((TransactionDomain)null);
+    }
+
+    DoubleStream(TransactionDomain domain) {
+        this.str = new StreamWithSend<Object>(domain);
+    }
+
+    void send(Transaction trans, double a) {
+        if (str.firings.isEmpty()) {
+            value = a;
+            str.send(trans, this);
+        }
+        else
+            str.send(trans, Double.valueOf(a));
+    }
+
+    /**
+     * The value of a firing that was delivered to a listener on str.
+     */
+    final double valueOf(Object fired) {
+        return fired == this ? value : ((Double)fired).doubleValue();
+    }
+
+    /**
+     * Listen to this stream from a node, and have its firings delivered to the handler.
+     */
+    final Listener listen(Node target, Transaction trans, final DoubleHandler h) {
+        return str.listen(target, trans, new TransactionHandler<Object>() {
+            public void run(Transaction trans2, Object fired) {
+                h.run(trans2, valueOf(fired));
+            }
+        }, false);
+    }
+
+    /**
+     * A {@link TransactionHandler} for double values.
+     */
+    interface DoubleHandler {
+        void run(Transaction trans, double a);
+    }
+
+    /**
+     * Run code in a transaction of this stream's domain.
+     */
+    final <B> B apply(Lambda1<Transaction, B> code) {
+        return TransactionDomain.of(str).apply(code);
+    }
+
+    /**
+     * Listen for firings of this stream, like {@link Stream#listen(Handler)}.
+     */
+    public final Listener listen(final DoubleConsumer action) {
+        return str.listen(new Handler<Object>() {
+            public void run(Object fired) {
+                action.accept(valueOf(fired));
+            }
+        });
+    }
+
+    /**
+     * Transform the stream's values, like {@link Stream#map(Lambda1)}.
+     */
+    public final DoubleStream map(final DoubleUnaryOperator f) {
+        final DoubleStream out = new DoubleStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new DoubleHandler() {
+                    public void run(Transaction trans2, double a) {
+                        out.send(trans2, f.applyAsDouble(a));
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Transform the stream's values into objects, like {@link Stream#map(Lambda1)}.
+     */
+    public final <B> Stream<B> mapToObj(final DoubleFunction<B> f) {
+        final StreamWithSend<B> out = new StreamWithSend<B>(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.node, trans1, new DoubleHandler() {
+                    public void run(Transaction trans2, double a) {
+                        out.send(trans2, f.apply(a));
+                    }
+                });
+            }
+        });
+        return out.unsafeAddCleanup(l);
+    }
+
+    /**
+     * This stream with its values boxed.
+     */
+    public final Stream<Double> boxed() {
+        return mapToObj(new DoubleFunction<Double>() {
+            public Double apply(double a) {
+                return a;
+            }
+        });
+    }
+
+    /**
+     * Only let through values that match the predicate, like {@link Stream#filter(Lambda1)}.
+     */
+    public final DoubleStream filter(final DoublePredicate predicate) {
+        final DoubleStream out = new DoubleStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new DoubleHandler() {
+                    public void run(Transaction trans2, double a) {
+                        if (predicate.test(a))
+                            out.send(trans2, a);
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Combine each value with the value of a cell, like {@link Stream#snapshot(Cell, Lambda2)}.
+     * The cell's value is the one it had before any updates in the current transaction.
+     */
+    public final DoubleStream snapshot(final DoubleCell c, final DoubleBinaryOperator f) {
+        str.checkDomain(c.str.str.domain);
+        final DoubleStream out = new DoubleStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new DoubleHandler() {
+                    public void run(Transaction trans2, double a) {
+                        out.send(trans2, f.applyAsDouble(a, c.sampleNoTrans()));
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * The value of a cell at the time of each firing, like {@link Stream#snapshot(Cell)}.
+     */
+    public final DoubleStream snapshot(DoubleCell c) {
+        return snapshot(c, new DoubleBinaryOperator() {
+            public double applyAsDouble(double a, double b) {
+                return b;
+            }
+        });
+    }
+
+    /**
+     * A cell that holds the latest value, like {@link Stream#hold(Object)}.
+     */
+    public final DoubleCell hold(final double initValue) {
+        return apply(new Lambda1<Transaction, DoubleCell>() {
+            public DoubleCell apply(Transaction trans) {
+                return new DoubleCell(DoubleStream.this, initValue, trans);
+            }
+        });
+    }
+
+    /**
+     * Accumulate state from the values, like {@link Stream#accum(Object, Lambda2)}.
+     * @param f Takes the value and the current state, and returns the new state.
+     */
+    public final DoubleCell accum(final double initState, final DoubleBinaryOperator f) {
+        return apply(new Lambda1<Transaction, DoubleCell>() {
+            public DoubleCell apply(Transaction trans1) {
+                final DoubleStream out = new DoubleStream(trans1.domain);
+                final DoubleCell state = new DoubleCell(out, initState, trans1);
+                Listener l = listen(out.str.node, trans1, new DoubleHandler() {
+                    public void run(Transaction trans2, double a) {
+                        out.send(trans2, f.applyAsDouble(a, state.sampleNoTrans()));
+                    }
+                });
+                out.str.unsafeAddCleanup(l);
+                return state;
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package nz.sodium;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * A variant of {@link StreamSink} for double values that doesn't box them.
+ */
+public class DoubleStreamSink extends DoubleStream {
+    /**
+     * Construct an DoubleStreamSink that allows send() to be called once on it per
+     * transaction, like {@link StreamSink#StreamSink()}.
+     */
+    public DoubleStreamSink() {
+        this(TransactionDomain.current());
+    }
+
+    /**
+     * A variant of {@link DoubleStreamSink()} that belongs to the specified domain.
+     */
+    public DoubleStreamSink(TransactionDomain domain) {
+        this(domain, null);
+    }
+
+    /**
+     * If you send more than one value in a transaction, they are combined into a
+     * single value using the specified function, like {@link StreamSink#StreamSink(Lambda2)}.
+     */
+    public DoubleStreamSink(DoubleBinaryOperator f) {
+        this(TransactionDomain.current(), f);
+    }
+
+    /**
+     * A variant of {@link DoubleStreamSink(DoubleBinaryOperator)} that belongs to the specified domain.
+     */
+    public DoubleStreamSink(TransactionDomain domain, DoubleBinaryOperator f) {
+        super(domain);
+        this.f = f;
+    }
+
+    private final DoubleBinaryOperator f;
+    private boolean accumValid;
+    private double accum;
+    private final Handler<Transaction> flush = new Handler<Transaction>() {
+        public void run(Transaction trans) {
+            accumValid = false;
+            send(trans, accum);
+        }
+    };
+
+    /**
+     * Send a value to be made available to consumers of the stream, like
+     * {@link StreamSink#send(Object)}.
+     */
+    public void send(final double a) {
+        str.domain.run(new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                send_(trans, a);
+            }
+        });
+    }
+
+    /**
+     * Send a value in the specified transaction, combining it with any value already
+     * sent in it.
+     */
+    final void send_(Transaction trans, double a) {
+        if (trans.domain.inCallback > 0)
+            throw new RuntimeException("You are not allowed to use send() inside a Sodium callback");
+        if (accumValid) {
+            if (f == null)
+                throw new RuntimeException("send() called more than once per transaction, which isn't allowed. Did you want to combine the events? Then pass a combining function to your DoubleStreamSink constructor.");
+            accum = f.applyAsDouble(accum, a);
+        }
+        else {
+            trans.prioritized(str.node, flush);
+            accum = a;
+            accumValid = true;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package nz.sodium;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The output of a stateless operator: map, mapTo, filter, filterOptional or gate.
+ * When another stateless operator is applied to one of these that nothing listens
+ * to yet, the two functions are composed into a single stage that listens to the
+ * original input, instead of adding a node and a prioritized hop per operator.
+ * <P>
+ * The stage that was fused away goes to sleep - it stops listening to its input -
+ * and wakes up again if anything listens to it later, replaying its input's firings
+ * from the current transaction, so it behaves exactly as if it had never been fused.
+ * At the end of that transaction, the stage it was fused into is moved back
+ * downstream of it, so the input's events still only go through each function once.
+ * Since a fused stage only depends on the original input, being ranked earlier than
+ * the chain it replaces makes no difference to what anything observes.
+ */
+final class FusedStream<A> extends StreamWithSend<A> {
+    /**
+     * One or more operators composed into a function. It returns {@link NONE} to
+     * drop the event.
+     */
+    interface Stage {
+        Object apply(Object a);
+    }
+
+    static final Object NONE = new Object();
+
+    private Stream<Object> source;
+    // What's applied to source's events, which is op composed with the stages that
+    // were fused into this one.
+    private Stage stage;
+    // The operator this stream was constructed with.
+    private final Stage op;
+    // The stage we were fused from. It's asleep, and we keep it alive so the chain
+    // can be put back together if it wakes up.
+    @SuppressWarnings("unused")
+    private final FusedStream<?> from;
+    // The stage we were fused into, if we're asleep.
+    private WeakReference<FusedStream<?>> fusedInto;
+    private final TransactionHandler<Object> handler = new TransactionHandler<Object>() {
+        @SuppressWarnings("unchecked")
+        public void run(Transaction trans, Object a) {
+            Object b = stage.apply(a);
+            if (b != NONE)
+                send(trans, (A)b);
+        }
+    };
+    // Our listener on source, or null while we're asleep.
+    private Listener upstream;
+    // Once something has listened to us or been fused from us, we stay as we are.
+    private boolean pinned;
+
+    @SuppressWarnings("unchecked")
+    private FusedStream(Transaction trans, Stream<?> source, Stage stage, Stage op, FusedStream<?> from) {
+        super(source.domain);
+        this.source = (Stream<Object>)source;
+        this.stage = stage;
+        this.op = op;
+        this.from = from;
+        attach(trans);
+    }
+
+    /**
+     * Apply the specified operator to the input, fusing it with the input's own stage
+     * if the input is a stage that can still be fused.
+     */
+    static <A> Stream<A> create(Transaction trans, Stream<?> in, Stage op) {
+        if (in instanceof FusedStream) {
+            FusedStream<?> f = (FusedStream<?>)in;
+            // If the stage has fired in this transaction, someone might still
+            // listen to it and see those firings, so it can't go to sleep.
+            if (!f.pinned && f.firings.isEmpty()) {
+                f.pinned = true;
+                f.upstream.unlisten();
+                f.upstream = null;
+                FusedStream<A> out = new FusedStream<A>(trans, f.source, compose(f.stage, op), op, f);
+                f.fusedInto = new WeakReference<FusedStream<?>>(out);
+                return out;
+            }
+        }
+        return new FusedStream<A>(trans, in, op, op, null);
+    }
+
+    private static Stage compose(final Stage first, final Stage second) {
+        return new Stage() {
+            public Object apply(Object a) {
+                Object b = first.apply(a);
+                return b == NONE ? NONE : second.apply(b);
+            }
+        };
+    }
+
+    private void attach(Transaction trans) {
+        upstream = source.listen(node, trans, handler, false);
+        unsafeAddCleanup(upstream);
+    }
+
+    @Override
+    void activate(final Transaction trans) {
+        pinned = true;
+        if (upstream == null) {
+            attach(trans);
+            if (fusedInto != null)
+                // Until then the stages downstream have already seen this
+                // transaction's events straight from source.
+                trans.last(new Runnable() {
+                    public void run() {
+                        unfuse(trans);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Move the stages that were fused from us back downstream of us.
+     */
+    @SuppressWarnings("unchecked")
+    private void unfuse(Transaction trans) {
+        Stream<Object> self = (Stream<Object>)(Stream<?>)this;
+        FusedStream<?> s = fusedInto.get();
+        fusedInto = null;
+        Stage st = null;
+        while (s != null) {
+            st = st == null ? s.op : compose(st, s.op);
+            s.source = self;
+            s.stage = st;
+            if (s.upstream != null) {
+                // Our earlier firings have already reached it from the old source.
+                s.upstream.unlisten();
+                s.upstream = self.listen(s.node, trans, s.handler, true);
+                s.unsafeAddCleanup(s.upstream);
+                break;
+            }
+            // It's asleep too, so it will listen to us when it wakes up.
+            s = s.fusedInto == null ? null : s.fusedInto.get();
+        }
+    }
+}
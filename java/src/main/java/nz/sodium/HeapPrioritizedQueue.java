@@ -0,0 +1,83 @@
+package nz.sodium;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A prioritized queue using a binary heap, which must be re-generated from scratch
+ * whenever ranks change.
+ */
+final class HeapPrioritizedQueue extends PrioritizedQueue {
+	private static class Entry implements Comparable<Entry> {
+		private final Node rank;
+		private final Handler<Transaction> action;
+		private final Node.Target target;
+		private final Object value;
+		private final long seq;
+
+		public Entry(Node rank, Handler<Transaction> action, Node.Target target, Object value, long seq) {
+			this.rank = rank;
+			this.action = action;
+			this.target = target;
+			this.value = value;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			int answer = rank.compareTo(o.rank);
+			if (answer == 0) {  // Same rank: preserve chronological sequence.
+				if (seq < o.seq) answer = -1; else
+				if (seq > o.seq) answer = 1;
+			}
+			return answer;
+		}
+
+	}
+
+	private final PriorityQueue<Entry> prioritizedQ = new PriorityQueue<Entry>();
+	private final Set<Entry> entries = new HashSet<Entry>();
+	private long nextSeq;
+
+	@Override
+	void add(Node rank, Handler<Transaction> action) {
+	    add(new Entry(rank, action, null, null, nextSeq++));
+	}
+
+	@Override
+	void add(Node.Target target, Object value) {
+	    add(new Entry(target.node, null, target, value, nextSeq++));
+	}
+
+	private void add(Entry e) {
+		prioritizedQ.add(e);
+		entries.add(e);
+	}
+
+	@Override
+	boolean isEmpty() {
+	    return prioritizedQ.isEmpty();
+	}
+
+	@Override
+	void runNext(Transaction trans) {
+	    Entry e = prioritizedQ.remove();
+	    entries.remove(e);
+	    if (e.action != null)
+	        e.action.run(trans);
+	    else
+	        StreamWithSend.fire(trans, e.target, e.value);
+	}
+
+	/**
+	 * If the priority queue has entries in it when we modify any of the nodes'
+	 * ranks, then we need to re-generate it to make sure it's up-to-date.
+	 */
+	@Override
+	void ranksChanged() {
+        prioritizedQ.clear();
+        for (Entry e : entries)
+            prioritizedQ.add(e);
+	}
+}
@@ -0,0 +1,43 @@
+package nz.sodium;
+
+/**
+ * Receives measurements of every transaction in a domain, for monitoring. Install it
+ * with {@link TransactionDomain#setInstrumentation(Instrumentation)}. When none is
+ * installed, which is the default, transactions aren't measured at all.
+ * <P>
+ * The methods are called on the thread that runs the transaction while it holds the
+ * domain's transaction lock, so they must be quick, and they must not start
+ * transactions. {@link TransactionRecorder} is an implementation that keeps histograms.
+ */
+public interface Instrumentation {
+    /**
+     * A transaction has started.
+     * @param lockWaitNanos How long the thread waited to acquire the domain's
+     *    transaction lock. This is 0 for transactions that start while the lock is
+     *    already held, such as those started by {@link Operational#split(Stream)} and
+     *    {@link Operational#defer(Stream)}.
+     */
+    void transactionStarted(long lockWaitNanos);
+
+    /**
+     * A transaction has closed.
+     * @param durationNanos The time from the transaction starting to it closing,
+     *    including transactions started by split() and defer() while closing it.
+     * @param prioritized The number of prioritized actions that were run, which is
+     *    mostly the number of values delivered to listeners.
+     * @param regens The number of times the queue of prioritized actions had to be
+     *    re-ordered because ranks changed, for example because of switchC or switchS.
+     * @param last The number of actions that were run once the prioritized actions
+     *    were done, such as clearing the values streams fired.
+     * @param post The number of actions posted to run after the transaction, each of
+     *    which starts a transaction of its own unless it came from
+     *    {@link Transaction#post(Runnable)}.
+     */
+    void transactionClosed(long durationNanos, int prioritized, int regens, int last, int post);
+
+    /**
+     * A listener threw an exception, which Sodium has caught so that the transaction
+     * can carry on.
+     */
+    void listenerFailed(Throwable t);
+}
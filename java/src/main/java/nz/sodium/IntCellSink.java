@@ -0,0 +1,45 @@
+package nz.sodium;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A variant of {@link CellSink} for int values that doesn't box them.
+ */
+public final class IntCellSink extends IntCell {
+    /**
+     * Construct a writable cell with the specified initial value, which allows send()
+     * to be called once on it per transaction.
+     */
+    public IntCellSink(int initValue) {
+        super(new IntStreamSink(), initValue);
+    }
+
+    /**
+     * A variant of {@link IntCellSink(int)} that belongs to the specified domain.
+     */
+    public IntCellSink(TransactionDomain domain, int initValue) {
+        super(new IntStreamSink(domain), initValue);
+    }
+
+    /**
+     * Construct a writable cell with the specified initial value. If multiple values are
+     * sent in the same transaction, the specified function is used to combine them.
+     */
+    public IntCellSink(int initValue, IntBinaryOperator f) {
+        super(new IntStreamSink(f), initValue);
+    }
+
+    /**
+     * A variant of {@link IntCellSink(int, IntBinaryOperator)} that belongs to the specified domain.
+     */
+    public IntCellSink(TransactionDomain domain, int initValue, IntBinaryOperator f) {
+        super(new IntStreamSink(domain, f), initValue);
+    }
+
+    /**
+     * Send a value, modifying the value of the cell, like {@link CellSink#send(Object)}.
+     */
+    public void send(int a) {
+        ((IntStreamSink)str).send(a);
+    }
+}
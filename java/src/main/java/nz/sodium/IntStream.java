@@ -0,0 +1,212 @@
+package nz.sodium;
+
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A variant of {@link Stream} for int values that doesn't box them. The first value
+ * the stream fires in a transaction is kept in a field, and listeners are given the
+ * stream itself to fetch it from, so a pipeline of IntStreams and {@link IntCell}s
+ * doesn't allocate per event. Values after the first in the same transaction, which are
+ * rare, are boxed.
+ * <P>
+ * The functions passed to its methods must be <em>referentially transparent</em>.
+ */
+public class IntStream {
+    final StreamWithSend<Object> str;
+    // The first value fired in the current transaction.
+    private int value;
+
+    /**
+     * A stream that never fires.
+     */
+    public IntStream() {
+        this((TransactionDomain)null);
+    }
+
+    IntStream(TransactionDomain domain) {
+        this.str = new StreamWithSend<Object>(domain);
+    }
+
+    void send(Transaction trans, int a) {
+        if (str.firings.isEmpty()) {
+            value = a;
+            str.send(trans, this);
+        }
+        else
+            str.send(trans, Integer.valueOf(a));
+    }
+
+    /**
+     * The value of a firing that was delivered to a listener on str.
+     */
+    final int valueOf(Object fired) {
+        return fired == this ? value : ((Integer)fired).intValue();
+    }
+
+    /**
+     * Listen to this stream from a node, and have its firings delivered to the handler.
+     */
+    final Listener listen(Node target, Transaction trans, final IntHandler h) {
+        return str.listen(target, trans, new TransactionHandler<Object>() {
+            public void run(Transaction trans2, Object fired) {
+                h.run(trans2, valueOf(fired));
+            }
+        }, false);
+    }
+
+    /**
+     * A {@link TransactionHandler} for int values.
+     */
+    interface IntHandler {
+        void run(Transaction trans, int a);
+    }
+
+    /**
+     * Run code in a transaction of this stream's domain.
+     */
+    final <B> B apply(Lambda1<Transaction, B> code) {
+        return TransactionDomain.of(str).apply(code);
+    }
+
+    /**
+     * Listen for firings of this stream, like {@link Stream#listen(Handler)}.
+     */
+    public final Listener listen(final IntConsumer action) {
+        return str.listen(new Handler<Object>() {
+            public void run(Object fired) {
+                action.accept(valueOf(fired));
+            }
+        });
+    }
+
+    /**
+     * Transform the stream's values, like {@link Stream#map(Lambda1)}.
+     */
+    public final IntStream map(final IntUnaryOperator f) {
+        final IntStream out = new IntStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new IntHandler() {
+                    public void run(Transaction trans2, int a) {
+                        out.send(trans2, f.applyAsInt(a));
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Transform the stream's values into objects, like {@link Stream#map(Lambda1)}.
+     */
+    public final <B> Stream<B> mapToObj(final IntFunction<B> f) {
+        final StreamWithSend<B> out = new StreamWithSend<B>(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.node, trans1, new IntHandler() {
+                    public void run(Transaction trans2, int a) {
+                        out.send(trans2, f.apply(a));
+                    }
+                });
+            }
+        });
+        return out.unsafeAddCleanup(l);
+    }
+
+    /**
+     * This stream with its values boxed.
+     */
+    public final Stream<Integer> boxed() {
+        return mapToObj(new IntFunction<Integer>() {
+            public Integer apply(int a) {
+                return a;
+            }
+        });
+    }
+
+    /**
+     * Only let through values that match the predicate, like {@link Stream#filter(Lambda1)}.
+     */
+    public final IntStream filter(final IntPredicate predicate) {
+        final IntStream out = new IntStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new IntHandler() {
+                    public void run(Transaction trans2, int a) {
+                        if (predicate.test(a))
+                            out.send(trans2, a);
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Combine each value with the value of a cell, like {@link Stream#snapshot(Cell, Lambda2)}.
+     * The cell's value is the one it had before any updates in the current transaction.
+     */
+    public final IntStream snapshot(final IntCell c, final IntBinaryOperator f) {
+        str.checkDomain(c.str.str.domain);
+        final IntStream out = new IntStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new IntHandler() {
+                    public void run(Transaction trans2, int a) {
+                        out.send(trans2, f.applyAsInt(a, c.sampleNoTrans()));
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * The value of a cell at the time of each firing, like {@link Stream#snapshot(Cell)}.
+     */
+    public final IntStream snapshot(IntCell c) {
+        return snapshot(c, new IntBinaryOperator() {
+            public int applyAsInt(int a, int b) {
+                return b;
+            }
+        });
+    }
+
+    /**
+     * A cell that holds the latest value, like {@link Stream#hold(Object)}.
+     */
+    public final IntCell hold(final int initValue) {
+        return apply(new Lambda1<Transaction, IntCell>() {
+            public IntCell apply(Transaction trans) {
+                return new IntCell(IntStream.this, initValue, trans);
+            }
+        });
+    }
+
+    /**
+     * Accumulate state from the values, like {@link Stream#accum(Object, Lambda2)}.
+     * @param f Takes the value and the current state, and returns the new state.
+     */
+    public final IntCell accum(final int initState, final IntBinaryOperator f) {
+        return apply(new Lambda1<Transaction, IntCell>() {
+            public IntCell apply(Transaction trans1) {
+                final IntStream out = new IntStream(trans1.domain);
+                final IntCell state = new IntCell(out, initState, trans1);
+                Listener l = listen(out.str.node, trans1, new IntHandler() {
+                    public void run(Transaction trans2, int a) {
+                        out.send(trans2, f.applyAsInt(a, state.sampleNoTrans()));
+                    }
+                });
+                out.str.unsafeAddCleanup(l);
+                return state;
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package nz.sodium;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A variant of {@link StreamSink} for int values that doesn't box them.
+ */
+public class IntStreamSink extends IntStream {
+    /**
+     * Construct an IntStreamSink that allows send() to be called once on it per
+     * transaction, like {@link StreamSink#StreamSink()}.
+     */
+    public IntStreamSink() {
+        this(TransactionDomain.current());
+    }
+
+    /**
+     * A variant of {@link IntStreamSink()} that belongs to the specified domain.
+     */
+    public IntStreamSink(TransactionDomain domain) {
+        this(domain, null);
+    }
+
+    /**
+     * If you send more than one value in a transaction, they are combined into a
+     * single value using the specified function, like {@link StreamSink#StreamSink(Lambda2)}.
+     */
+    public IntStreamSink(IntBinaryOperator f) {
+        this(TransactionDomain.current(), f);
+    }
+
+    /**
+     * A variant of {@link IntStreamSink(IntBinaryOperator)} that belongs to the specified domain.
+     */
+    public IntStreamSink(TransactionDomain domain, IntBinaryOperator f) {
+        super(domain);
+        this.f = f;
+    }
+
+    private final IntBinaryOperator f;
+    private boolean accumValid;
+    private int accum;
+    private final Handler<Transaction> flush = new Handler<Transaction>() {
+        public void run(Transaction trans) {
+            accumValid = false;
+            send(trans, accum);
+        }
+    };
+
+    /**
+     * Send a value to be made available to consumers of the stream, like
+     * {@link StreamSink#send(Object)}.
+     */
+    public void send(final int a) {
+        str.domain.run(new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                send_(trans, a);
+            }
+        });
+    }
+
+    /**
+     * Send a value in the specified transaction, combining it with any value already
+     * sent in it.
+     */
+    final void send_(Transaction trans, int a) {
+        if (trans.domain.inCallback > 0)
+            throw new RuntimeException("You are not allowed to use send() inside a Sodium callback");
+        if (accumValid) {
+            if (f == null)
+                throw new RuntimeException("send() called more than once per transaction, which isn't allowed. Did you want to combine the events? Then pass a combining function to your IntStreamSink constructor.");
+            accum = f.applyAsInt(accum, a);
+        }
+        else {
+            trans.prioritized(str.node, flush);
+            accum = a;
+            accumValid = true;
+        }
+    }
+}
@@ -4,15 +4,34 @@ import java.util.Optional;
 
 /**
  * A representation for a value that may not be available until the current
- * transaction is closed.
+ * transaction is closed. The value is computed the first time it's asked for and
+ * then remembered, unless it was asked for before it was available.
  */
 public class Lazy<A> {
     public Lazy(Lambda0<A> f) { this.f = f; }
-    public Lazy(final A a) { this.f = new Lambda0<A>() {
-            public A apply() { return a; }
-        };
+    public Lazy(final A a) { this.value = a; }
+    // Null once the value has been computed, so we don't keep alive whatever it
+    // was computed from.
+    private volatile Lambda0<A> f;
+    // Only read after f has been seen to be null, which publishes it.
+    private A value;
+
+    // Set while computing a value that is being taken before the end of the
+    // transaction that produces it, so it may not be the final value.
+    private static final ThreadLocal<boolean[]> provisional = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    /**
+     * Tell the Lazy currently being computed on this thread that the value it gets
+     * mustn't be remembered.
+     */
+    static void provisional() {
+        provisional.get()[0] = true;
     }
-    private Lambda0<A> f;
 
     /**
      * Get the value if available, throwing an exception if not.
@@ -20,7 +39,26 @@ public class Lazy<A> {
      * when the Lazy was obtained.
      */
     public final A get() {
-        return f.apply();
+        if (f == null)
+            return value;
+        synchronized (this) {
+            Lambda0<A> f = this.f;
+            if (f == null)
+                return value;
+            boolean[] p = provisional.get();
+            boolean outer = p[0];
+            p[0] = false;
+            try {
+                A a = f.apply();
+                if (!p[0]) {
+                    value = a;
+                    this.f = null;
+                }
+                return a;
+            } finally {
+                p[0] |= outer;
+            }
+        }
     }
 
     /**
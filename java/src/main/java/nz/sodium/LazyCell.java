@@ -4,6 +4,8 @@ class LazyCell<A> extends Cell<A> {
     LazyCell(final Stream<A> event, final Lazy<A> lazyInitValue) {
         super(event, null);
         this.lazyInitValue = lazyInitValue;
+        if (lazyInitValue != null)
+            committed = new Version<A>(0, null, lazyInitValue, null);
     }
 
     @Override
@@ -12,6 +14,10 @@ class LazyCell<A> extends Cell<A> {
         if (value == null && lazyInitValue != null) {
             value = lazyInitValue.get();
             lazyInitValue = null;
+            // Now it's been worked out, it can be read without a transaction.
+            Version<A> v = committed;
+            if (v != null && v.version == 0 && !v.isConcrete())
+                committed = new Version<A>(0, value, null, null);
         }
         return value;
     }
@@ -0,0 +1,350 @@
+package nz.sodium;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state behind {@link Cell#liftAll(Cell, Object, Lambda2)}. The values of the member
+ * cells are the leaves of a balanced binary tree, kept in an array with the children of
+ * node i at 2i and 2i+1, and each node above them holds the combination of its two
+ * children. Only the paths from the leaves that changed up to the root are recombined,
+ * once per transaction, so k of n members changing costs O(k log n) calls to the
+ * combining function.
+ * <P>
+ * A member that's removed leaves an empty leaf behind. New members go into the leaves
+ * after the last member that stays, so appending and removing members is incremental
+ * too. Anything else, such as inserting a member in the middle or running out of
+ * leaves, lays the leaves out again, but members that stay keep their listeners.
+ */
+final class LiftAll<A> {
+    // A leaf without a member, or a subtree that has no members.
+    private static final Object EMPTY = new Object();
+    // A leaf whose member's value hasn't been sampled yet.
+    private static final Object UNKNOWN = new Object();
+
+    private static final class Member<A> {
+        Member(Cell<A> cell) {
+            this.cell = cell;
+        }
+        final Cell<A> cell;
+        int slot = -1;
+        Listener listener;
+    }
+
+    private final Lambda2<A,A,A> f;
+    private final A zero;
+    private final StreamWithSend<A> out;
+    // The members' updates are delivered at this node's rank, which is before out's,
+    // so that the send always comes after them.
+    private final Node in = new Node(0);
+    private final Links links;
+
+    private int capacity;
+    private Member<A>[] members;
+    private Object[] tree;
+    // False until the nodes above the leaves have been worked out from scratch.
+    private boolean built;
+    // The tree indices of the leaves that changed this transaction, to be recombined.
+    private int[] dirty;
+    private int dirtyCount;
+    private int[] scratch;
+    private boolean[] marked;
+    private Collection<? extends Cell<A>> newMembership;
+    // True once the send has been added to the current transaction.
+    private boolean scheduled;
+
+    private LiftAll(Lambda2<A,A,A> f, A zero, StreamWithSend<A> out) {
+        this.f = f;
+        this.zero = zero;
+        this.out = out;
+        in.linkTo(null, out.node, new Node.Target[1]);
+        this.links = new Links(this);
+        allocate(1);
+    }
+
+    static <A> Cell<A> liftAll(final Cell<? extends Collection<? extends Cell<A>>> cells,
+            final A zero, final Lambda2<A,A,A> f) {
+        TransactionDomain domain = cells.str.domain;
+        if (domain == null)
+            for (Cell<A> c : cells.sampleNoTrans())
+                if (c.str.domain != null) {
+                    domain = c.str.domain;
+                    break;
+                }
+        return (domain != null ? domain : TransactionDomain.current()).apply(new Lambda1<Transaction, Cell<A>>() {
+            public Cell<A> apply(Transaction trans0) {
+                final LiftAll<A> state = new LiftAll<A>(f, zero, new StreamWithSend<A>(trans0.domain));
+                state.setMembers(trans0, cells.sampleNoTrans(), false);
+                @SuppressWarnings("unchecked")
+                Stream<Collection<? extends Cell<A>>> membership =
+                    (Stream<Collection<? extends Cell<A>>>)(Stream<?>)cells.str;
+                Listener l = membership.listen(state.out.node, trans0,
+                    new TransactionHandler<Collection<? extends Cell<A>>>() {
+                        public void run(Transaction trans1, Collection<? extends Cell<A>> newMembers) {
+                            state.newMembership = newMembers;
+                            state.schedule(trans1);
+                        }
+                    }, false);
+                return state.out.unsafeAddCleanup(l).holdLazy(new Lazy<A>(new Lambda0<A>() {
+                    public A apply() {
+                        return state.root();
+                    }
+                }));
+            }
+        });
+    }
+
+    private final Handler<Transaction> send = new Handler<Transaction>() {
+        public void run(Transaction trans2) {
+            if (newMembership != null) {
+                Collection<? extends Cell<A>> m = newMembership;
+                newMembership = null;
+                long rank = out.node.rank();
+                setMembers(trans2, m, true);
+                if (out.node.rank() != rank) {
+                    // A new member is ranked after where we were, so it may still
+                    // update in this transaction. Send once it has had the chance,
+                    // staying scheduled so that its update is folded into the send.
+                    trans2.prioritized(out.node, this);
+                    return;
+                }
+            }
+            scheduled = false;
+            out.send(trans2, root());
+        }
+    };
+
+    private void schedule(Transaction trans) {
+        if (!scheduled) {
+            scheduled = true;
+            trans.prioritized(out.node, send);
+        }
+    }
+
+    private void update(Transaction trans, Member<A> m, A a) {
+        if (m.slot < 0)
+            return;  // removed earlier in this transaction
+        int i = capacity + m.slot;
+        tree[i] = a;
+        markDirty(i);
+        schedule(trans);
+    }
+
+    private void markDirty(int i) {
+        if (built && !marked[i]) {
+            marked[i] = true;
+            dirty[dirtyCount++] = i;
+        }
+    }
+
+    /**
+     * The combination of all the members' current values.
+     */
+    @SuppressWarnings("unchecked")
+    private A root() {
+        if (!built)
+            build();
+        else
+            recombine();
+        Object r = tree[1];
+        return r == EMPTY ? zero : (A)r;
+    }
+
+    private void build() {
+        for (int i = 0; i < capacity; i++)
+            if (tree[capacity + i] == UNKNOWN)
+                tree[capacity + i] = members[i].cell.sampleNoTrans();
+        for (int i = capacity - 1; i >= 1; i--)
+            tree[i] = combine(tree[2 * i], tree[2 * i + 1]);
+        built = true;
+    }
+
+    private void recombine() {
+        // The leaves are all at the same depth, so go up one level at a time, and each
+        // node above a changed leaf is recombined once.
+        int[] level = dirty;
+        int[] parents = scratch;
+        int n = dirtyCount;
+        while (n > 0 && level[0] > 1) {
+            int m = 0;
+            for (int j = 0; j < n; j++) {
+                int p = level[j] >> 1;
+                marked[level[j]] = false;
+                if (!marked[p]) {
+                    marked[p] = true;
+                    parents[m++] = p;
+                }
+            }
+            for (int j = 0; j < m; j++) {
+                int p = parents[j];
+                tree[p] = combine(tree[2 * p], tree[2 * p + 1]);
+            }
+            int[] t = level;
+            level = parents;
+            parents = t;
+            n = m;
+        }
+        for (int j = 0; j < n; j++)
+            marked[level[j]] = false;
+        dirtyCount = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object combine(Object l, Object r) {
+        if (l == EMPTY)
+            return r;
+        if (r == EMPTY)
+            return l;
+        return f.apply((A)l, (A)r);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        members = (Member<A>[])new Member<?>[capacity];
+        tree = new Object[2 * capacity];
+        for (int i = 1; i < 2 * capacity; i++)
+            tree[i] = EMPTY;
+        dirty = new int[capacity];
+        scratch = new int[capacity];
+        marked = new boolean[2 * capacity];
+        dirtyCount = 0;
+        built = false;
+        links.resize(capacity);
+    }
+
+    /**
+     * Change the members to the specified cells, in order.
+     * @param during True if a transaction is under way at out's rank, so the values
+     *    that new members have had this transaction are taken from their streams.
+     */
+    private void setMembers(Transaction trans, Collection<? extends Cell<A>> cells, boolean during) {
+        // Match each cell up with a member for the same cell in the order they are in
+        // now, so a cell that appears more than once keeps all its members.
+        Map<Cell<A>, Deque<Member<A>>> existing = new IdentityHashMap<Cell<A>, Deque<Member<A>>>();
+        for (Member<A> m : members)
+            if (m != null) {
+                Deque<Member<A>> d = existing.get(m.cell);
+                if (d == null)
+                    existing.put(m.cell, d = new ArrayDeque<Member<A>>());
+                d.add(m);
+            }
+        List<Member<A>> newMembers = new ArrayList<Member<A>>(cells.size());
+        boolean inOrder = true;
+        boolean added = false;
+        int last = -1;
+        for (Cell<A> c : cells) {
+            Deque<Member<A>> d = existing.get(c);
+            Member<A> m = d == null ? null : d.poll();
+            if (m == null) {
+                m = new Member<A>(c);
+                added = true;
+            }
+            else {
+                if (added || m.slot < last)
+                    inOrder = false;
+                last = m.slot;
+            }
+            newMembers.add(m);
+        }
+        for (Deque<Member<A>> d : existing.values())
+            for (Member<A> m : d) {
+                m.listener.unlisten();
+                links.set(m.slot, null);
+                members[m.slot] = null;
+                tree[capacity + m.slot] = EMPTY;
+                markDirty(capacity + m.slot);
+                m.slot = -1;
+            }
+        int toAdd = 0;
+        for (Member<A> m : newMembers)
+            if (m.slot < 0)
+                toAdd++;
+        if (inOrder && last + 1 + toAdd <= capacity) {
+            int slot = last + 1;
+            for (Member<A> m : newMembers)
+                if (m.slot < 0) {
+                    m.slot = slot++;
+                    members[m.slot] = m;
+                    tree[capacity + m.slot] = attach(trans, m, during);
+                    markDirty(capacity + m.slot);
+                }
+        }
+        else {
+            Object[] oldTree = tree;
+            int oldCapacity = capacity;
+            int size = newMembers.size();
+            int cap = 1;
+            while (cap < size)
+                cap <<= 1;
+            // Leave room to grow if we've run out.
+            if (during && size > 1)
+                cap <<= 1;
+            allocate(cap);
+            for (int i = 0; i < size; i++) {
+                Member<A> m = newMembers.get(i);
+                Object value = m.slot < 0 ? attach(trans, m, during) : oldTree[oldCapacity + m.slot];
+                m.slot = i;
+                members[i] = m;
+                tree[cap + i] = value;
+                links.set(i, m.listener.unlinker());
+            }
+        }
+    }
+
+    /**
+     * Start listening to a new member.
+     * @return The member's value.
+     */
+    private Object attach(Transaction trans, final Member<A> m, boolean during) {
+        // Before the transaction gets to out's rank, listen() replays the member's
+        // earlier firings. After that, it's too late for a replay, so we take the
+        // latest firing ourselves.
+        m.listener = m.cell.str.listen(in, trans, new TransactionHandler<A>() {
+            public void run(Transaction trans1, A a) {
+                update(trans1, m, a);
+            }
+        }, during);
+        links.set(m.slot, m.listener.unlinker());
+        List<A> firings = m.cell.str.firings;
+        if (during)
+            return firings.isEmpty() ? m.cell.sampleNoTrans() : firings.get(firings.size() - 1);
+        return UNKNOWN;
+    }
+
+    /**
+     * Unlinks the members' listeners once the state has been garbage collected, because
+     * the members change over time and can't be finalizers of the output stream. It
+     * doesn't refer to the state, so that the state can be collected.
+     */
+    private static final class Links extends Listener {
+        Links(Object state) {
+            Reaper.register(state).add(this);
+        }
+        private Listener[] unlinkers = new Listener[0];
+
+        synchronized void resize(int capacity) {
+            unlinkers = new Listener[capacity];
+        }
+
+        synchronized void set(int slot, Listener unlinker) {
+            if (slot >= 0)
+                unlinkers[slot] = unlinker;
+        }
+
+        public void unlisten() {
+            Listener[] us;
+            synchronized (this) {
+                us = unlinkers;
+            }
+            for (Listener u : us)
+                if (u != null)
+                    u.unlisten();
+        }
+    }
+}
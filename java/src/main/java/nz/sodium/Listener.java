@@ -1,5 +1,7 @@
 package nz.sodium;
 
+import java.util.List;
+
 /**
  * A handle for a listener that was registered with {@link Cell#listen(Handler)} or {@link Stream#listen(Handler)}.
  */
@@ -23,7 +25,56 @@ public class Listener {
                 one.unlisten();
                 two.unlisten();
             }
+
+            Listener unlinker() {
+                return one.unlinker().append(two.unlinker());
+            }
+
+            void upstream(List<Stream<?>> out) {
+                one.upstream(out);
+                two.upstream(out);
+            }
         };
     }
+
+    /**
+     * Combine any number of listeners into one, like {@link append(Listener)}, but
+     * without nesting them, so there is no limit on how many there can be.
+     */
+    static Listener all(final Listener[] ls) {
+        return new Listener() {
+            public void unlisten() {
+                for (Listener l : ls)
+                    l.unlisten();
+            }
+
+            Listener unlinker() {
+                Listener[] us = new Listener[ls.length];
+                for (int i = 0; i < ls.length; i++)
+                    us[i] = ls[i].unlinker();
+                return all(us);
+            }
+
+            void upstream(List<Stream<?>> out) {
+                for (Listener l : ls)
+                    l.upstream(out);
+            }
+        };
+    }
+
+    /**
+     * A listener that does what {@link unlisten()} does, for use after whatever this
+     * listener was attached to has been garbage collected. It must not keep the
+     * listener's handler alive, because the handler may refer to that object.
+     */
+    Listener unlinker() {
+        return this;
+    }
+
+    /**
+     * Add the streams this listener is listening to, and so keeping alive, to out.
+     */
+    void upstream(List<Stream<?>> out) {
+    }
 }
 
@@ -0,0 +1,195 @@
+package nz.sodium;
+
+import java.util.List;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A variant of {@link Cell} for long values that doesn't box them.
+ * <P>
+ * The functions passed to its methods must be <em>referentially transparent</em>.
+ */
+public class LongCell {
+    final LongStream str;
+    private long value;
+    private long valueUpdate;
+    private boolean hasUpdate;
+    private Listener cleanup;
+
+    /**
+     * A cell with a constant value.
+     */
+    public LongCell(long value) {
+        this.str = new LongStream();
+        this.value = value;
+    }
+
+    LongCell(final LongStream str, long initValue) {
+        this.str = str;
+        this.value = initValue;
+        TransactionDomain.of(str.str).run(new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                attach(trans);
+            }
+        });
+    }
+
+    LongCell(LongStream str, long initValue, Transaction trans) {
+        this.str = str;
+        this.value = initValue;
+        attach(trans);
+    }
+
+    private void attach(Transaction trans1) {
+        final Runnable update = new Runnable() {
+            public void run() {
+                value = valueUpdate;
+                hasUpdate = false;
+            }
+        };
+        cleanup = str.listen(Node.NULL, trans1, new LongStream.LongHandler() {
+            public void run(Transaction trans2, long a) {
+                if (!hasUpdate) {
+                    hasUpdate = true;
+                    trans2.last(update);
+                }
+                valueUpdate = a;
+            }
+        });
+        Reaper.register(this).add(cleanup.unlinker());
+    }
+
+    /**
+     * The value the cell had before any updates in the current transaction.
+     */
+    final long sampleNoTrans() {
+        return value;
+    }
+
+    /**
+     * The value including any updates in the current transaction that have been
+     * fired so far. Unlike valueUpdate, this is up to date at any rank.
+     */
+    final long newValue() {
+        List<Object> firings = str.str.firings;
+        return firings.isEmpty() ? value : str.valueOf(firings.get(firings.size() - 1));
+    }
+
+    /**
+     * Sample the cell's current value, like {@link Cell#sample()}.
+     */
+    public final long sample() {
+        return str.apply(new Lambda1<Transaction, Long>() {
+            public Long apply(Transaction trans) {
+                return sampleNoTrans();
+            }
+        });
+    }
+
+    /**
+     * A stream of the cell's current value followed by its updates, where an update in the
+     * same transaction replaces the current value.
+     */
+    final LongStream value(Transaction trans1) {
+        final LongStream out = new LongStream(trans1.domain);
+        final Handler<Transaction> send = new Handler<Transaction>() {
+            public void run(Transaction trans3) {
+                if (out.str.firings.isEmpty())
+                    out.send(trans3, sampleNoTrans());
+            }
+        };
+        Listener l = str.listen(out.str.node, trans1, new LongStream.LongHandler() {
+            public void run(Transaction trans2, long a) {
+                out.send(trans2, a);
+            }
+        });
+        // By the time this runs, any update in this transaction has been queued at
+        // out's rank, so putting the send after it lets the update take its place.
+        trans1.prioritized(out.str.node, new Handler<Transaction>() {
+            public void run(Transaction trans2) {
+                trans2.prioritized(out.str.node, send);
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Listen for the cell's value and its updates, like {@link Cell#listen(Handler)}.
+     */
+    public final Listener listen(final LongConsumer action) {
+        return str.apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans) {
+                return value(trans).listen(action);
+            }
+        });
+    }
+
+    /**
+     * Transform the cell's value, like {@link Cell#map(Lambda1)}.
+     */
+    public final LongCell map(final LongUnaryOperator f) {
+        return str.apply(new Lambda1<Transaction, LongCell>() {
+            public LongCell apply(Transaction trans) {
+                return new LongCell(str.map(f), f.applyAsLong(sampleNoTrans()), trans);
+            }
+        });
+    }
+
+    /**
+     * Transform the cell's value into an object, like {@link Cell#map(Lambda1)}.
+     */
+    public final <B> Cell<B> mapToObj(final LongFunction<B> f) {
+        return str.apply(new Lambda1<Transaction, Cell<B>>() {
+            public Cell<B> apply(Transaction trans) {
+                return str.mapToObj(f).hold(f.apply(sampleNoTrans()));
+            }
+        });
+    }
+
+    /**
+     * This cell with its value boxed.
+     */
+    public final Cell<Long> boxed() {
+        return mapToObj(new LongFunction<Long>() {
+            public Long apply(long a) {
+                return a;
+            }
+        });
+    }
+
+    /**
+     * Lift a binary function into cells, like {@link Cell#lift(Cell, Lambda2)}.
+     */
+    public final LongCell lift(final LongCell b, final LongBinaryOperator f) {
+        final LongCell a = this;
+        return TransactionDomain.of(a.str.str, b.str.str).apply(new Lambda1<Transaction, LongCell>() {
+            public LongCell apply(Transaction trans0) {
+                final LongStream out = new LongStream(trans0.domain);
+                final Handler<Transaction> send = new Handler<Transaction>() {
+                    public void run(Transaction trans2) {
+                        scheduled = false;
+                        out.send(trans2, f.applyAsLong(a.newValue(), b.newValue()));
+                    }
+                };
+                LongStream.LongHandler h = new LongStream.LongHandler() {
+                    public void run(Transaction trans1, long x) {
+                        if (!scheduled) {
+                            scheduled = true;
+                            trans1.prioritized(out.str.node, send);
+                        }
+                    }
+                };
+                Listener l = a.str.listen(out.str.node, trans0, h)
+                    .append(b.str.listen(out.str.node, trans0, h));
+                out.str.unsafeAddCleanup(l);
+                return new LongCell(out, f.applyAsLong(a.sampleNoTrans(), b.sampleNoTrans()), trans0);
+            }
+
+            // True once the send has been added to the current transaction.
+            private boolean scheduled;
+        });
+    }
+}
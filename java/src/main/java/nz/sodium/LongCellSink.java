@@ -0,0 +1,45 @@
+package nz.sodium;
+
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A variant of {@link CellSink} for long values that doesn't box them.
+ */
+public final class LongCellSink extends LongCell {
+    /**
+     * Construct a writable cell with the specified initial value, which allows send()
+     * to be called once on it per transaction.
+     */
+    public LongCellSink(long initValue) {
+        super(new LongStreamSink(), initValue);
+    }
+
+    /**
+     * A variant of {@link LongCellSink(long)} that belongs to the specified domain.
+     */
+    public LongCellSink(TransactionDomain domain, long initValue) {
+        super(new LongStreamSink(domain), initValue);
+    }
+
+    /**
+     * Construct a writable cell with the specified initial value. If multiple values are
+     * sent in the same transaction, the specified function is used to combine them.
+     */
+    public LongCellSink(long initValue, LongBinaryOperator f) {
+        super(new LongStreamSink(f), initValue);
+    }
+
+    /**
+     * A variant of {@link LongCellSink(long, LongBinaryOperator)} that belongs to the specified domain.
+     */
+    public LongCellSink(TransactionDomain domain, long initValue, LongBinaryOperator f) {
+        super(new LongStreamSink(domain, f), initValue);
+    }
+
+    /**
+     * Send a value, modifying the value of the cell, like {@link CellSink#send(Object)}.
+     */
+    public void send(long a) {
+        ((LongStreamSink)str).send(a);
+    }
+}
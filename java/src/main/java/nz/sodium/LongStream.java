@@ -0,0 +1,212 @@
+package nz.sodium;
+
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A variant of {@link Stream} for long values that doesn't box them. The first value
+ * the stream fires in a transaction is kept in a field, and listeners are given the
+ * stream itself to fetch it from, so a pipeline of LongStreams and {@link LongCell}s
+ * doesn't allocate per event. Values after the first in the same transaction, which are
+ * rare, are boxed.
+ * <P>
+ * The functions passed to its methods must be <em>referentially transparent</em>.
+ */
+public class LongStream {
+    final StreamWithSend<Object> str;
+    // The first value fired in the current transaction.
+    private long value;
+
+    /**
+     * A stream that never fires.
+     */
+    public LongStream() {
+        this((TransactionDomain)null);
+    }
+
+    LongStream(TransactionDomain domain) {
+        this.str = new StreamWithSend<Object>(domain);
+    }
+
+    void send(Transaction trans, long a) {
+        if (str.firings.isEmpty()) {
+            value = a;
+            str.send(trans, this);
+        }
+        else
+            str.send(trans, Long.valueOf(a));
+    }
+
+    /**
+     * The value of a firing that was delivered to a listener on str.
+     */
+    final long valueOf(Object fired) {
+        return fired == this ? value : ((Long)fired).longValue();
+    }
+
+    /**
+     * Listen to this stream from a node, and have its firings delivered to the handler.
+     */
+    final Listener listen(Node target, Transaction trans, final LongHandler h) {
+        return str.listen(target, trans, new TransactionHandler<Object>() {
+            public void run(Transaction trans2, Object fired) {
+                h.run(trans2, valueOf(fired));
+            }
+        }, false);
+    }
+
+    /**
+     * A {@link TransactionHandler} for long values.
+     */
+    interface LongHandler {
+        void run(Transaction trans, long a);
+    }
+
+    /**
+     * Run code in a transaction of this stream's domain.
+     */
+    final <B> B apply(Lambda1<Transaction, B> code) {
+        return TransactionDomain.of(str).apply(code);
+    }
+
+    /**
+     * Listen for firings of this stream, like {@link Stream#listen(Handler)}.
+     */
+    public final Listener listen(final LongConsumer action) {
+        return str.listen(new Handler<Object>() {
+            public void run(Object fired) {
+                action.accept(valueOf(fired));
+            }
+        });
+    }
+
+    /**
+     * Transform the stream's values, like {@link Stream#map(Lambda1)}.
+     */
+    public final LongStream map(final LongUnaryOperator f) {
+        final LongStream out = new LongStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new LongHandler() {
+                    public void run(Transaction trans2, long a) {
+                        out.send(trans2, f.applyAsLong(a));
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Transform the stream's values into objects, like {@link Stream#map(Lambda1)}.
+     */
+    public final <B> Stream<B> mapToObj(final LongFunction<B> f) {
+        final StreamWithSend<B> out = new StreamWithSend<B>(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.node, trans1, new LongHandler() {
+                    public void run(Transaction trans2, long a) {
+                        out.send(trans2, f.apply(a));
+                    }
+                });
+            }
+        });
+        return out.unsafeAddCleanup(l);
+    }
+
+    /**
+     * This stream with its values boxed.
+     */
+    public final Stream<Long> boxed() {
+        return mapToObj(new LongFunction<Long>() {
+            public Long apply(long a) {
+                return a;
+            }
+        });
+    }
+
+    /**
+     * Only let through values that match the predicate, like {@link Stream#filter(Lambda1)}.
+     */
+    public final LongStream filter(final LongPredicate predicate) {
+        final LongStream out = new LongStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new LongHandler() {
+                    public void run(Transaction trans2, long a) {
+                        if (predicate.test(a))
+                            out.send(trans2, a);
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * Combine each value with the value of a cell, like {@link Stream#snapshot(Cell, Lambda2)}.
+     * The cell's value is the one it had before any updates in the current transaction.
+     */
+    public final LongStream snapshot(final LongCell c, final LongBinaryOperator f) {
+        str.checkDomain(c.str.str.domain);
+        final LongStream out = new LongStream(str.domain);
+        Listener l = apply(new Lambda1<Transaction, Listener>() {
+            public Listener apply(Transaction trans1) {
+                return listen(out.str.node, trans1, new LongHandler() {
+                    public void run(Transaction trans2, long a) {
+                        out.send(trans2, f.applyAsLong(a, c.sampleNoTrans()));
+                    }
+                });
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * The value of a cell at the time of each firing, like {@link Stream#snapshot(Cell)}.
+     */
+    public final LongStream snapshot(LongCell c) {
+        return snapshot(c, new LongBinaryOperator() {
+            public long applyAsLong(long a, long b) {
+                return b;
+            }
+        });
+    }
+
+    /**
+     * A cell that holds the latest value, like {@link Stream#hold(Object)}.
+     */
+    public final LongCell hold(final long initValue) {
+        return apply(new Lambda1<Transaction, LongCell>() {
+            public LongCell apply(Transaction trans) {
+                return new LongCell(LongStream.this, initValue, trans);
+            }
+        });
+    }
+
+    /**
+     * Accumulate state from the values, like {@link Stream#accum(Object, Lambda2)}.
+     * @param f Takes the value and the current state, and returns the new state.
+     */
+    public final LongCell accum(final long initState, final LongBinaryOperator f) {
+        return apply(new Lambda1<Transaction, LongCell>() {
+            public LongCell apply(Transaction trans1) {
+                final LongStream out = new LongStream(trans1.domain);
+                final LongCell state = new LongCell(out, initState, trans1);
+                Listener l = listen(out.str.node, trans1, new LongHandler() {
+                    public void run(Transaction trans2, long a) {
+                        out.send(trans2, f.applyAsLong(a, state.sampleNoTrans()));
+                    }
+                });
+                out.str.unsafeAddCleanup(l);
+                return state;
+            }
+        });
+    }
+}
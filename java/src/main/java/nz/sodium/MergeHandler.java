@@ -0,0 +1,68 @@
+package nz.sodium;
+
+import java.util.Arrays;
+
+/**
+ * Merges any number of input streams into one output with a single node. Every input
+ * is delivered at the output's rank, so by the time the first firing of a transaction
+ * arrives, all the others have been queued, and the send that's added then runs after
+ * them. The send combines the firings in the order of the inputs, which is the same as
+ * the left-to-right order of {@link Stream#merge(Stream, Lambda2)}.
+ */
+class MergeHandler<A>
+{
+	public MergeHandler(int inputs, Lambda2<A,A,A> f, StreamWithSend<A> out)
+	{
+	    this.f = f;
+	    this.out = out;
+	    this.values = new Object[inputs];
+	    this.fired = new boolean[inputs];
+	    this.order = new int[inputs];
+	}
+	private final Lambda2<A,A,A> f;
+	private final StreamWithSend<A> out;
+	// The firings so far this transaction, coalesced per input.
+	private final Object[] values;
+	private final boolean[] fired;
+	// The inputs that have fired this transaction.
+	private final int[] order;
+	private int count;
+
+	private final Handler<Transaction> send = new Handler<Transaction>() {
+	    @SuppressWarnings("unchecked")
+	    public void run(Transaction trans2) {
+	        if (count > 1)
+	            Arrays.sort(order, 0, count);
+	        A acc = (A)values[order[0]];
+	        for (int j = 1; j < count; j++)
+	            acc = f.apply(acc, (A)values[order[j]]);
+	        for (int j = 0; j < count; j++) {
+	            values[order[j]] = null;
+	            fired[order[j]] = false;
+	        }
+	        count = 0;
+	        out.send(trans2, acc);
+	    }
+	};
+
+	/**
+	 * The handler for the input with the specified index.
+	 */
+	TransactionHandler<A> input(final int ix)
+	{
+	    return new TransactionHandler<A>() {
+	        @SuppressWarnings("unchecked")
+	        public void run(Transaction trans1, A a) {
+	            if (fired[ix])
+	                values[ix] = f.apply((A)values[ix], a);
+	            else {
+	                if (count == 0)
+	                    trans1.prioritized(out.node, send);
+	                values[ix] = a;
+	                fired[ix] = true;
+	                order[count++] = ix;
+	            }
+	        }
+	    };
+	}
+}
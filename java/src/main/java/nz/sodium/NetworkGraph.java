@@ -0,0 +1,340 @@
+package nz.sodium;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A snapshot of the network of nodes reachable from some streams and cells, for finding
+ * out why a network is bigger or slower than expected. Each stream has a node, and
+ * every listener on a stream is a link from its node to the node of whatever is
+ * listening, so each node's links are its fan-out. Links go into "listeners" rather
+ * than nodes when the listener is a cell's state or a handler given to listen().
+ * <P>
+ * A link is dead if the handler at the end of it has been garbage collected but the
+ * link hasn't been cleaned up yet. Each node also records which nodes upstream of it
+ * its stream keeps alive.
+ * <P>
+ * The network is walked downstream from the streams and cells that are added, along
+ * links, and upstream, along what each stream keeps alive. Each walk is done inside
+ * a transaction of the domain of the stream or cell added, so the snapshot is
+ * consistent as long as nothing outside a transaction changes the network. The graph
+ * holds on to the nodes it has seen, but not to the streams.
+ */
+public final class NetworkGraph {
+    /**
+     * A node in the network.
+     */
+    public static final class NodeInfo {
+        private NodeInfo(int id, long rank) {
+            this.id = id;
+            this.rank = rank;
+        }
+        /**
+         * Numbers nodes from 0 in the order they were found.
+         */
+        public final int id;
+        /**
+         * The node's rank at the time it was found. Nodes are processed in
+         * increasing order of rank within a transaction.
+         */
+        public final long rank;
+        private String type;
+        private final List<Link> links = new ArrayList<Link>();
+        private final List<NodeInfo> keepsAlive = new ArrayList<NodeInfo>();
+
+        /**
+         * The class name of a stream this node belongs to, without the package, or
+         * null if it was only found by following a link.
+         */
+        public String type() {
+            return type;
+        }
+
+        /**
+         * The links from this node to its listeners.
+         */
+        public List<Link> links() {
+            return Collections.unmodifiableList(links);
+        }
+
+        /**
+         * The number of listeners.
+         */
+        public int fanOut() {
+            return links.size();
+        }
+
+        /**
+         * The number of links whose handler has been garbage collected.
+         */
+        public int deadLinks() {
+            int n = 0;
+            for (Link l : links)
+                if (l.isDead())
+                    n++;
+            return n;
+        }
+
+        /**
+         * The nodes of the streams that this node's stream keeps alive.
+         */
+        public List<NodeInfo> keepsAlive() {
+            return Collections.unmodifiableList(keepsAlive);
+        }
+    }
+
+    /**
+     * A link from a node to a listener.
+     */
+    public static final class Link {
+        private Link(NodeInfo from, NodeInfo to, String handler, boolean dead) {
+            this.from = from;
+            this.to = to;
+            this.handler = handler;
+            this.dead = dead;
+        }
+        public final NodeInfo from;
+        /**
+         * The node that's listening, or null if the listener isn't a node, such as a
+         * cell's state or a handler given to listen().
+         */
+        public final NodeInfo to;
+        /**
+         * The class name of the handler, without the package, or null if it has
+         * been garbage collected or if the link has no handler. Links without a handler,
+         * such as the ones merge() uses, only make sure that the listening node is
+         * ranked after this one.
+         */
+        public final String handler;
+        private final boolean dead;
+
+        /**
+         * True if the handler has been garbage collected but the link is still there.
+         */
+        public boolean isDead() {
+            return dead;
+        }
+    }
+
+    private final Map<Node, NodeInfo> infos = new IdentityHashMap<Node, NodeInfo>();
+    private final List<NodeInfo> nodes = new ArrayList<NodeInfo>();
+
+    /**
+     * Add the part of the network reachable from the specified stream.
+     */
+    public NetworkGraph add(final Stream<?> s) {
+        TransactionDomain.of(s).runVoid(new Runnable() {
+            public void run() {
+                walk(s);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Add the part of the network reachable from the specified cell.
+     */
+    public NetworkGraph add(Cell<?> c) {
+        return add(c.str);
+    }
+
+    private void walk(Stream<?> root) {
+        Deque<Node> toLink = new ArrayDeque<Node>();
+        Deque<Stream<?>> toUpstream = new ArrayDeque<Stream<?>>();
+        Map<Stream<?>, Boolean> seenStreams = new IdentityHashMap<Stream<?>, Boolean>();
+        List<Stream<?>> upstream = new ArrayList<Stream<?>>();
+        toUpstream.add(root);
+        seenStreams.put(root, true);
+        while (!toUpstream.isEmpty() || !toLink.isEmpty()) {
+            if (!toUpstream.isEmpty()) {
+                Stream<?> s = toUpstream.poll();
+                NodeInfo info = info(s.node, toLink);
+                if (info.type == null)
+                    info.type = simpleName(s.getClass());
+                upstream.clear();
+                for (Listener l : s.finalizers)
+                    l.upstream(upstream);
+                for (Stream<?> u : upstream) {
+                    NodeInfo uInfo = info(u.node, toLink);
+                    if (!info.keepsAlive.contains(uInfo))
+                        info.keepsAlive.add(uInfo);
+                    if (seenStreams.put(u, true) == null)
+                        toUpstream.add(u);
+                }
+            }
+            else {
+                Node n = toLink.poll();
+                NodeInfo info = infos.get(n);
+                for (Node.Target t : n.listeners) {
+                    TransactionHandler<Unit> action = t.action.get();
+                    String handler = action == null ? null : simpleName(action.getClass());
+                    NodeInfo to = t.node == Node.NULL ? null : info(t.node, toLink);
+                    info.links.add(new Link(info, to, handler,
+                        action == null && t.action != Node.Target.NO_ACTION));
+                }
+            }
+        }
+    }
+
+    /**
+     * The info for the specified node, adding it to toLink if we haven't seen it yet.
+     */
+    private NodeInfo info(Node n, Deque<Node> toLink) {
+        NodeInfo info = infos.get(n);
+        if (info == null) {
+            info = new NodeInfo(nodes.size(), n.rank());
+            infos.put(n, info);
+            nodes.add(info);
+            toLink.add(n);
+        }
+        return info;
+    }
+
+    private static String simpleName(Class<?> cls) {
+        String name = cls.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * All the nodes found, in the order they were found.
+     */
+    public List<NodeInfo> nodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * The number of nodes with each rank.
+     */
+    public SortedMap<Long, Integer> rankDistribution() {
+        SortedMap<Long, Integer> m = new TreeMap<Long, Integer>();
+        for (NodeInfo n : nodes) {
+            Integer count = m.get(n.rank);
+            m.put(n.rank, count == null ? 1 : count + 1);
+        }
+        return m;
+    }
+
+    /**
+     * The number of nodes with each number of listeners.
+     */
+    public SortedMap<Integer, Integer> fanOutDistribution() {
+        SortedMap<Integer, Integer> m = new TreeMap<Integer, Integer>();
+        for (NodeInfo n : nodes) {
+            Integer count = m.get(n.fanOut());
+            m.put(n.fanOut(), count == null ? 1 : count + 1);
+        }
+        return m;
+    }
+
+    /**
+     * The number of links in the whole graph whose handler has been garbage collected.
+     */
+    public int deadLinkCount() {
+        int n = 0;
+        for (NodeInfo info : nodes)
+            n += info.deadLinks();
+        return n;
+    }
+
+    /**
+     * The graph in Graphviz DOT format. Links are solid arrows, with dead links in red
+     * and links without a handler dashed, and links to listeners that aren't nodes go
+     * to a point. Dotted arrows show what each stream keeps alive.
+     */
+    public String toDot() {
+        StringBuilder sb = new StringBuilder("digraph sodium {\n");
+        for (NodeInfo n : nodes) {
+            sb.append("  n").append(n.id).append(" [label=\"")
+              .append(n.type == null ? "node" : escape(n.type))
+              .append("\\nrank ").append(n.rank).append("\"];\n");
+        }
+        int listeners = 0;
+        for (NodeInfo n : nodes) {
+            for (Link l : n.links) {
+                String to;
+                if (l.to != null)
+                    to = "n" + l.to.id;
+                else {
+                    to = "l" + listeners++;
+                    sb.append("  ").append(to).append(" [shape=point];\n");
+                }
+                sb.append("  n").append(n.id).append(" -> ").append(to);
+                if (l.isDead())
+                    sb.append(" [label=\"dead\", color=red, fontcolor=red]");
+                else if (l.handler == null)
+                    sb.append(" [style=dashed]");
+                else
+                    sb.append(" [label=\"").append(escape(l.handler)).append("\"]");
+                sb.append(";\n");
+            }
+            for (NodeInfo u : n.keepsAlive)
+                sb.append("  n").append(n.id).append(" -> n").append(u.id)
+                  .append(" [style=dotted, arrowhead=empty];\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * The graph as a JSON object with a "nodes" array, where listeners that aren't
+     * nodes have a "to" of null.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"nodes\":[");
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeInfo n = nodes.get(i);
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"id\":").append(n.id)
+              .append(",\"rank\":").append(n.rank)
+              .append(",\"type\":").append(n.type == null ? "null" : "\"" + escape(n.type) + "\"")
+              .append(",\"fanOut\":").append(n.fanOut())
+              .append(",\"deadLinks\":").append(n.deadLinks())
+              .append(",\"links\":[");
+            for (int j = 0; j < n.links.size(); j++) {
+                Link l = n.links.get(j);
+                if (j > 0)
+                    sb.append(',');
+                sb.append("{\"to\":").append(l.to == null ? "null" : Integer.toString(l.to.id))
+                  .append(",\"handler\":").append(l.handler == null ? "null" : "\"" + escape(l.handler) + "\"")
+                  .append(",\"dead\":").append(l.dead)
+                  .append('}');
+            }
+            sb.append("],\"keepsAlive\":[");
+            for (int j = 0; j < n.keepsAlive.size(); j++) {
+                if (j > 0)
+                    sb.append(',');
+                sb.append(n.keepsAlive.get(j).id);
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Escape a string for a double-quoted string in either JSON or DOT.
+     */
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
+        }
+        return sb.toString();
+    }
+}
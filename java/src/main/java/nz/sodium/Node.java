@@ -1,21 +1,27 @@
 package nz.sodium;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.HashSet;
-import java.util.Set;
 import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 class Node implements Comparable<Node> {
     public final static Node NULL = new Node(Long.MAX_VALUE);
+    private final static Target[] NO_TARGETS = new Target[0];
 
 	Node(long rank) {
 		this.rank = rank;
 	}
 
 	public static class Target {
+	    // The action of a link that only makes sure the target is ranked after the
+	    // node, and is never fired.
+	    static final WeakReference<TransactionHandler<Unit>> NO_ACTION =
+	        new WeakReference<TransactionHandler<Unit>>(null);
+
 	    Target(TransactionHandler<Unit> action, Node node) {
-	        this.action = new WeakReference<TransactionHandler<Unit>>(action);
+	        this.action = action == null ? NO_ACTION : new WeakReference<TransactionHandler<Unit>>(action);
 	        this.node = node;
 	    }
 	    final WeakReference<TransactionHandler<Unit>> action;
@@ -23,32 +29,201 @@ class Node implements Comparable<Node> {
     }
 
 	private long rank;
-    List<Target> listeners = new ArrayList<Target>();
+	// Copy-on-write, so it can be read without holding the listeners lock. It is
+	// only ever replaced while holding the lock.
+    volatile Target[] listeners = NO_TARGETS;
+
+    long rank() {
+        return rank;
+    }
 
 	/**
 	 * @return true if any changes were made. 
 	 */
 	boolean linkTo(TransactionHandler<Unit> action, Node target, Target[] outTarget) {
-		boolean changed = target.ensureBiggerThan(rank, new HashSet<Node>());
+		boolean changed = target.rank <= rank && ranking.get().raise(target, rank);
 		Target t = new Target(action, target);
-		listeners.add(t);
+		Target[] old = listeners;
+		Target[] neu = new Target[old.length + 1];
+		System.arraycopy(old, 0, neu, 0, old.length);
+		neu[old.length] = t;
+		listeners = neu;
 		outTarget[0] = t;
 		return changed;
 	}
 
 	void unlinkTo(Target target) {
-	    listeners.remove(target);
+	    Target[] old = listeners;
+	    for (int i = 0; i < old.length; i++)
+	        if (old[i] == target) {
+	            if (old.length == 1)
+	                listeners = NO_TARGETS;
+	            else {
+	                Target[] neu = new Target[old.length - 1];
+	                System.arraycopy(old, 0, neu, 0, i);
+	                System.arraycopy(old, i + 1, neu, i, neu.length - i);
+	                listeners = neu;
+	            }
+	            return;
+	        }
+	}
+
+	/**
+	 * Unlink all the specified targets from this node at once.
+	 */
+	void unlinkAll(Collection<Target> targets) {
+	    if (targets.size() == 1) {
+	        unlinkTo(targets.iterator().next());
+	        return;
+	    }
+	    Set<Target> dead = Collections.newSetFromMap(new IdentityHashMap<Target, Boolean>());
+	    dead.addAll(targets);
+	    Target[] old = listeners;
+	    Target[] neu = new Target[old.length];
+	    int n = 0;
+	    for (Target t : old)
+	        if (!dead.contains(t))
+	            neu[n++] = t;
+	    if (n != old.length) {
+	        Target[] trimmed = new Target[n];
+	        System.arraycopy(neu, 0, trimmed, 0, n);
+	        listeners = n == 0 ? NO_TARGETS : trimmed;
+	    }
 	}
 
-	private boolean ensureBiggerThan(long limit, Set<Node> visited) {
-		if (rank > limit || visited.contains(this))
-			return false;
+	/**
+	 * Unlinks a target without holding on to its action, for cleaning up after the
+	 * owner of the listener has been garbage collected. It doesn't hold on to the
+	 * stream either, so that a whole chain of streams that has become garbage can be
+	 * cleaned up after a single garbage collection.
+	 */
+	static final class Unlinker extends Listener {
+	    Unlinker(Node node, Object lock, Target target) {
+	        this.node = node;
+	        this.lock = lock;
+	        this.target = target;
+	    }
+	    final Node node;
+	    // The listeners lock that protects node.
+	    final Object lock;
+	    final Target target;
 
-		visited.add(this);
-		rank = limit + 1;
-		for (Target l : listeners)
-			l.node.ensureBiggerThan(rank, visited);
-		return true;
+	    public void unlisten() {
+	        synchronized (lock) {
+	            node.unlinkTo(target);
+	        }
+	    }
+	}
+
+	// The Ranking.raise() call that has reached this node, and the rank it will get.
+	private int visited;
+	private long newRank;
+
+	private static final ThreadLocal<Ranking> ranking = new ThreadLocal<Ranking>() {
+	    @Override
+	    protected Ranking initialValue() {
+	        return new Ranking();
+	    }
+	};
+
+	/**
+	 * The number of nodes the last re-ranking on this thread looked at.
+	 */
+	static int lastRaiseVisits() {
+	    return ranking.get().visits;
+	}
+
+	/**
+	 * Keeps ranks in topological order as new links are made. When a link would put a
+	 * node after one of lower or equal rank, only the nodes downstream of it whose rank
+	 * is now too low are raised, and it stops at nodes that are already in order.
+	 * <P>
+	 * Apart from the new link, the graph is already in order, so taking the nodes in
+	 * order of their old ranks means that a node's predecessors have all been
+	 * re-ranked before we get to it. Each node is then re-ranked just once, however
+	 * many paths lead to it. The heap is kept between calls so linking doesn't
+	 * allocate.
+	 */
+	private static final class Ranking {
+	    private Node[] heap = new Node[16];
+	    private int size;
+	    private int stamp;
+	    int visits;
+
+	    /**
+	     * Raise the rank of node above limit, and the ranks of its listeners above it.
+	     */
+	    boolean raise(Node node, long limit) {
+	        stamp++;
+	        visits = 0;
+	        node.visited = stamp;
+	        node.newRank = limit + 1;
+	        push(node);
+	        while (size > 0) {
+	            Node n = pop();
+	            visits++;
+	            n.rank = n.newRank;
+	            for (Target t : n.listeners) {
+	                Node l = t.node;
+	                if (l.rank > n.rank)
+	                    continue;
+	                if (l.visited == stamp) {
+	                    // Already waiting, or done if the graph has a cycle, in which
+	                    // case we leave it, so we don't go round in circles.
+	                    if (l.newRank <= n.rank)
+	                        l.newRank = n.rank + 1;
+	                }
+	                else {
+	                    l.visited = stamp;
+	                    l.newRank = n.rank + 1;
+	                    push(l);
+	                }
+	            }
+	        }
+	        return true;
+	    }
+
+	    // A binary heap ordered by the nodes' ranks before this re-ranking, which
+	    // don't change until they're taken out.
+
+	    private void push(Node node) {
+	        if (size == heap.length) {
+	            Node[] newHeap = new Node[size * 2];
+	            System.arraycopy(heap, 0, newHeap, 0, size);
+	            heap = newHeap;
+	        }
+	        int i = size++;
+	        while (i > 0) {
+	            int p = (i - 1) >> 1;
+	            if (heap[p].rank <= node.rank)
+	                break;
+	            heap[i] = heap[p];
+	            i = p;
+	        }
+	        heap[i] = node;
+	    }
+
+	    private Node pop() {
+	        Node top = heap[0];
+	        Node last = heap[--size];
+	        heap[size] = null;
+	        if (size > 0) {
+	            int i = 0;
+	            while (true) {
+	                int c = 2 * i + 1;
+	                if (c >= size)
+	                    break;
+	                if (c + 1 < size && heap[c + 1].rank < heap[c].rank)
+	                    c++;
+	                if (last.rank <= heap[c].rank)
+	                    break;
+	                heap[i] = heap[c];
+	                i = c;
+	            }
+	            heap[i] = last;
+	        }
+	        return top;
+	    }
 	}
 
 	@Override
@@ -17,7 +17,7 @@ public class Operational {
      */
     public static <A> Stream<A> updates(final Cell<A> c)
     {
-        return Transaction.apply(new Lambda1<Transaction, Stream<A>>() {
+        return TransactionDomain.of(c.str).apply(new Lambda1<Transaction, Stream<A>>() {
         	public Stream<A> apply(Transaction trans) {
                 return c.updates(trans);
         	}
@@ -36,7 +36,7 @@ public class Operational {
      */
     public static <A> Stream<A> value(final Cell<A> c)
     {
-        return Transaction.apply(new Lambda1<Transaction, Stream<A>>() {
+        return TransactionDomain.of(c.str).apply(new Lambda1<Transaction, Stream<A>>() {
         	public Stream<A> apply(Transaction trans) {
         		return c.value(trans);
         	}
@@ -66,7 +66,7 @@ public class Operational {
 	 * events output by split() or {@link defer(Stream)} invoked elsewhere in the code.
 	 */
     public static <A, C extends Iterable<A>> Stream<A> split(Stream<C> s) {
-	    final StreamWithSend<A> out = new StreamWithSend<A>();
+	    final StreamWithSend<A> out = new StreamWithSend<A>(s.domain);
 	    Listener l1 = s.listen_(out.node, new TransactionHandler<C>() {
 	        public void run(Transaction trans, C as) {
 	            int childIx = 0;
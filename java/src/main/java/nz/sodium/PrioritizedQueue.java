@@ -0,0 +1,37 @@
+package nz.sodium;
+
+/**
+ * The queue of a transaction's prioritized actions, which are run in order of the
+ * rank of their node, and in the order they were added where ranks are equal.
+ */
+abstract class PrioritizedQueue {
+    /**
+     * Set the system property nz.sodium.scheduler=heap to use the original binary heap
+     * for new domains instead of rank buckets.
+     */
+    static PrioritizedQueue create() {
+        if ("heap".equals(System.getProperty("nz.sodium.scheduler")))
+            return new HeapPrioritizedQueue();
+        else
+            return new BucketPrioritizedQueue();
+    }
+
+    abstract void add(Node rank, Handler<Transaction> action);
+
+    /**
+     * Add the firing of a value to a listener target, ranked by the target's node.
+     */
+    abstract void add(Node.Target target, Object value);
+
+    abstract boolean isEmpty();
+
+    /**
+     * Remove the lowest-ranked entry and run it. The queue must not be empty.
+     */
+    abstract void runNext(Transaction trans);
+
+    /**
+     * Called when the ranks of nodes may have changed since their actions were added.
+     */
+    abstract void ranksChanged();
+}
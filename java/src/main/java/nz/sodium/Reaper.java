@@ -0,0 +1,138 @@
+package nz.sodium;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unlistens the listeners attached to streams, cells and switch handlers once those
+ * have been garbage collected. A single daemon thread waits on a reference queue and
+ * handles whatever has been collected in batches. Links into the same node are removed
+ * together, taking each listeners lock once per batch.
+ * <P>
+ * The listeners a cleanup holds must not refer back to the object it is watching, or
+ * that object will never be collected. That's why cleanups are given
+ * {@link Listener#unlinker()} rather than the listener itself.
+ */
+final class Reaper {
+    private static final int MAX_BATCH = 1024;
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    // Keeps the cleanups themselves alive until they have been run, in a doubly linked
+    // list so that adding and removing them doesn't allocate.
+    private static final Cleanup live = new Cleanup(null);
+
+    static {
+        Thread t = new Thread("sodium-reaper") {
+            public void run() {
+                reap();
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private Reaper() {}
+
+    /**
+     * The listeners to unlisten once an object has been garbage collected.
+     */
+    static final class Cleanup extends PhantomReference<Object> {
+        private static final Listener[] NO_LISTENERS = new Listener[0];
+
+        private Cleanup(Object referent) {
+            super(referent, queue);
+            prev = next = this;
+        }
+        private Listener[] listeners = NO_LISTENERS;
+        private Cleanup prev;
+        private Cleanup next;
+
+        synchronized void add(Listener l) {
+            Listener[] neu = new Listener[listeners.length + 1];
+            System.arraycopy(listeners, 0, neu, 0, listeners.length);
+            neu[listeners.length] = l;
+            listeners = neu;
+        }
+
+        private synchronized Listener[] listeners() {
+            return listeners;
+        }
+    }
+
+    /**
+     * Register an object whose listeners will be unlistened after it has been garbage
+     * collected. They are added to the returned cleanup.
+     */
+    static Cleanup register(Object referent) {
+        Cleanup c = new Cleanup(referent);
+        synchronized (live) {
+            c.prev = live;
+            c.next = live.next;
+            live.next.prev = c;
+            live.next = c;
+        }
+        return c;
+    }
+
+    private static void remove(Cleanup c) {
+        synchronized (live) {
+            c.prev.next = c.next;
+            c.next.prev = c.prev;
+            c.prev = c.next = null;
+        }
+    }
+
+    private static void reap() {
+        // Links to remove, by listeners lock and then by node.
+        Map<Object, Map<Node, List<Node.Target>>> unlinks =
+            new IdentityHashMap<Object, Map<Node, List<Node.Target>>>();
+        List<Listener> others = new ArrayList<Listener>();
+        while (true) {
+            try {
+                Cleanup c = (Cleanup)queue.remove();
+                unlinks.clear();
+                others.clear();
+                int n = 0;
+                do {
+                    remove(c);
+                    for (Listener l : c.listeners()) {
+                        if (l instanceof Node.Unlinker) {
+                            Node.Unlinker u = (Node.Unlinker)l;
+                            Map<Node, List<Node.Target>> byNode = unlinks.get(u.lock);
+                            if (byNode == null)
+                                unlinks.put(u.lock, byNode = new IdentityHashMap<Node, List<Node.Target>>());
+                            List<Node.Target> targets = byNode.get(u.node);
+                            if (targets == null)
+                                byNode.put(u.node, targets = new ArrayList<Node.Target>());
+                            targets.add(u.target);
+                        }
+                        else
+                            others.add(l);
+                    }
+                    n++;
+                }
+                while (n < MAX_BATCH && (c = (Cleanup)queue.poll()) != null);
+                for (Map.Entry<Object, Map<Node, List<Node.Target>>> e : unlinks.entrySet()) {
+                    synchronized (e.getKey()) {
+                        for (Map.Entry<Node, List<Node.Target>> e2 : e.getValue().entrySet())
+                            e2.getKey().unlinkAll(e2.getValue());
+                    }
+                }
+                for (Listener l : others) {
+                    try {
+                        l.unlisten();
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+}
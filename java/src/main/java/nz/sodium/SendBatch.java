@@ -0,0 +1,103 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects values to be pushed into any number of sinks, and sends them together in
+ * as few transactions as possible. This is much cheaper than sending them one at a time,
+ * because each transaction has to take the domain's lock, run the
+ * {@link Transaction#onStart(Runnable)} hooks and close itself.
+ * <P>
+ * Values are sent in the order they were added. Values that go into the same sink in
+ * the same transaction are combined as if send() had been called for each of them
+ * inside that transaction, so a sink that has no combining function may only receive
+ * one value per transaction. All the sinks must belong to the batch's domain.
+ */
+public final class SendBatch {
+    private final TransactionDomain domain;
+    private final int valuesPerTransaction;
+    private final List<StreamSink<?>> sinks = new ArrayList<StreamSink<?>>();
+    private final List<Object> values = new ArrayList<Object>();
+
+    /**
+     * A batch for the current domain that sends all its values in one transaction.
+     */
+    public SendBatch() {
+        this(TransactionDomain.current(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * A batch for the specified domain that starts a new transaction after every
+     * valuesPerTransaction values.
+     */
+    public SendBatch(TransactionDomain domain, int valuesPerTransaction) {
+        if (valuesPerTransaction < 1)
+            throw new IllegalArgumentException("valuesPerTransaction must be at least 1");
+        this.domain = domain;
+        this.valuesPerTransaction = valuesPerTransaction;
+    }
+
+    /**
+     * Add a value to be pushed into the specified stream.
+     */
+    public <A> SendBatch add(StreamSink<A> s, A a) {
+        if (s.domain != domain)
+            throw new RuntimeException("StreamSink belongs to a different TransactionDomain from the batch");
+        sinks.add(s);
+        values.add(a);
+        return this;
+    }
+
+    /**
+     * Add values to be pushed into the specified stream, in order.
+     */
+    public <A> SendBatch addAll(StreamSink<A> s, Iterable<? extends A> as) {
+        for (A a : as)
+            add(s, a);
+        return this;
+    }
+
+    /**
+     * Add a value to be pushed into the specified cell.
+     */
+    public <A> SendBatch add(CellSink<A> c, A a) {
+        return add((StreamSink<A>)c.str, a);
+    }
+
+    /**
+     * The number of values waiting to be sent.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Send all the values that have been added, and empty the batch so it can be used
+     * again. This must be invoked outside of any Sodium callback.
+     */
+    public void send() {
+        final int n = values.size();
+        try {
+            for (int start = 0; start < n; start += valuesPerTransaction) {
+                final int from = start;
+                final int to = (int)Math.min((long)start + valuesPerTransaction, n);
+                domain.run(new Handler<Transaction>() {
+                    public void run(Transaction trans) {
+                        for (int i = from; i < to; i++)
+                            send(trans, sinks.get(i), values.get(i));
+                    }
+                });
+            }
+        }
+        finally {
+            sinks.clear();
+            values.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A> void send(Transaction trans, StreamSink<A> s, Object a) {
+        s.send_(trans, (A)a);
+    }
+}
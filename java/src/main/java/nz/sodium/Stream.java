@@ -2,9 +2,10 @@ package nz.sodium;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashSet;
 import java.util.Optional;
-import java.util.Vector;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 /**
  * Represents a stream of discrete events/firings containing values of type A. 
@@ -13,7 +14,7 @@ public class Stream<A> {
 	private static final class ListenerImplementation<A> extends Listener {
 		/**
 		 * It's essential that we keep the listener alive while the caller holds
-		 * the Listener, so that the finalizer doesn't get triggered.
+		 * the Listener, so that it doesn't get cleaned up.
 		 */
 		private Stream<A> event;
 		/**
@@ -30,7 +31,10 @@ public class Stream<A> {
 		}
 
 		public void unlisten() {
-		    synchronized (Transaction.listenersLock) {
+		    Stream<A> event = this.event;
+		    if (event == null)
+		        return;
+		    synchronized (event.listenersLock()) {
 		        if (this.event != null) {
                     event.node.unlinkTo(target);
                     this.event = null;
@@ -39,28 +43,68 @@ public class Stream<A> {
                 }
             }
 		}
+
+		Listener unlinker() {
+		    Stream<A> event = this.event;
+		    return event == null ? new Listener()
+		                         : new Node.Unlinker(event.node, event.listenersLock(), target);
+		}
+
+		void upstream(List<Stream<?>> out) {
+		    Stream<A> event = this.event;
+		    if (event != null)
+		        out.add(event);
+		}
 	}
 
 	final Node node;
 	final List<Listener> finalizers;
 	final List<A> firings;
+	// Unlistens finalizers once this stream has been garbage collected.
+	private Reaper.Cleanup cleanup;
+	// The domain this stream belongs to, or null for a stream that can never fire,
+	// which may be used in any domain.
+	final TransactionDomain domain;
 
 	/**
 	 * A stream that never fires.
 	 */
 	public Stream() {
+	    this((TransactionDomain)null);
+	}
+
+	Stream(TransactionDomain domain) {
 	    this.node = new Node(0L);
 	    this.finalizers = new ArrayList<Listener>();
 	    this.firings = new ArrayList<A>();
+	    this.domain = domain;
 	}
 
-	private Stream(Node node, List<Listener> finalizers, List<A> firings) {
+	private Stream(Node node, List<Listener> finalizers, List<A> firings, TransactionDomain domain) {
 	    this.node = node;
 	    this.finalizers = finalizers;
         this.firings = firings;
+        this.domain = domain;
+        for (Listener l : finalizers)
+            reapWith(l);
 	}
 
-    static HashSet<Listener> keepListenersAlive = new HashSet<Listener>();
+	/**
+	 * The lock that protects this stream's node.
+	 */
+	final Object listenersLock() {
+	    return domain != null ? domain.listenersLock : Transaction.listenersLock;
+	}
+
+	/**
+	 * Throw if something from the specified domain can't be combined with this stream.
+	 * Operators that read a cell without listening to it have to check this themselves,
+	 * because otherwise nothing would stop them reading it without its domain's lock.
+	 */
+	final void checkDomain(TransactionDomain other) {
+	    if (domain != null && other != null && other != domain)
+	        throw new RuntimeException("Streams and cells from different TransactionDomains can't be combined. Use TransactionDomain.bridge() to pass events between domains.");
+	}
 
 	/**
 	 * Listen for events/firings on this stream. This is the observer pattern. The
@@ -76,17 +120,14 @@ public class Stream<A> {
      */
 	public final Listener listen(final Handler<A> handler) {
         final Listener l0 = listenWeak(handler);
+        final TransactionDomain domain = TransactionDomain.of(this);
         Listener l = new Listener() {
             public void unlisten() {
                 l0.unlisten();
-                synchronized (keepListenersAlive) {
-                    keepListenersAlive.remove(this);
-                }
+                domain.keepAlive.remove(this);
             }
         };
-        synchronized (keepListenersAlive) {
-            keepListenersAlive.add(l);
-        }
+        domain.keepAlive.add(l);
         return l;
 	}
 
@@ -107,7 +148,7 @@ public class Stream<A> {
     }
 
 	final Listener listen_(final Node target, final TransactionHandler<A> action) {
-		return Transaction.apply(new Lambda1<Transaction, Listener>() {
+		return TransactionDomain.of(this).apply(new Lambda1<Transaction, Listener>() {
 			public Listener apply(Transaction trans1) {
 				return listen(target, trans1, action, false);
 			}
@@ -132,8 +173,10 @@ public class Stream<A> {
 
 	@SuppressWarnings("unchecked")
 	final Listener listen(Node target, Transaction trans, final TransactionHandler<A> action, boolean suppressEarlierFirings) {
+	    checkDomain(trans.domain);
+	    activate(trans);
 	    Node.Target[] node_target_ = new Node.Target[1];
-        synchronized (Transaction.listenersLock) {
+        synchronized (listenersLock()) {
             if (node.linkTo((TransactionHandler<Unit>)action, target, node_target_))
                 trans.toRegen = true;
         }
@@ -145,15 +188,15 @@ public class Stream<A> {
                     // Anything sent already in this transaction must be sent now so that
                     // there's no order dependency between send and listen.
                     for (A a : firings) {
-                        Transaction.inCallback++;
+                        trans2.domain.inCallback++;
                         try {  // Don't allow transactions to interfere with Sodium
                                // internals.
                             action.run(trans2, a);
                         } catch (Throwable t) {
-                            t.printStackTrace();
+                            trans2.listenerFailed(t);
                         }
                         finally {
-                            Transaction.inCallback--;
+                            trans2.domain.inCallback--;
                         }
                     }
                 }
@@ -170,17 +213,77 @@ public class Stream<A> {
      *    cell. Apart from this the function must be <em>referentially transparent</em>.
      */
 	public final <B> Stream<B> map(final Lambda1<A,B> f)
+	{
+	    return stateless(new FusedStream.Stage() {
+	        @SuppressWarnings("unchecked")
+	        public Object apply(Object a) {
+	            return f.apply((A)a);
+	        }
+	    });
+	}
+
+	/**
+	 * Apply a stateless operator, fusing it with this stream's if this stream is the
+	 * output of one.
+	 */
+	private <B> Stream<B> stateless(final FusedStream.Stage stage)
 	{
 	    final Stream<A> ev = this;
-	    final StreamWithSend<B> out = new StreamWithSend<B>();
-        Listener l = listen_(out.node, new TransactionHandler<A>() {
-        	public void run(Transaction trans2, A a) {
-	            out.send(trans2, f.apply(a));
+	    return TransactionDomain.of(this).apply(new Lambda1<Transaction, Stream<B>>() {
+	        public Stream<B> apply(Transaction trans) {
+	            return FusedStream.<B>create(trans, ev, stage);
 	        }
-        });
-        return out.unsafeAddCleanup(l);
+	    });
 	}
 
+    /**
+     * A variant of {@link map(Lambda1)} that gives an {@link IntStream}, so that what is
+     * done with the values after this doesn't box them.
+     */
+    public final IntStream mapToInt(final ToIntFunction<A> f)
+    {
+        final IntStream out = new IntStream(domain);
+        Listener l = listen_(out.str.node, new TransactionHandler<A>() {
+            public void run(Transaction trans2, A a) {
+                out.send(trans2, f.applyAsInt(a));
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * A variant of {@link map(Lambda1)} that gives a {@link LongStream}, so that what is
+     * done with the values after this doesn't box them.
+     */
+    public final LongStream mapToLong(final ToLongFunction<A> f)
+    {
+        final LongStream out = new LongStream(domain);
+        Listener l = listen_(out.str.node, new TransactionHandler<A>() {
+            public void run(Transaction trans2, A a) {
+                out.send(trans2, f.applyAsLong(a));
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
+    /**
+     * A variant of {@link map(Lambda1)} that gives a {@link DoubleStream}, so that what is
+     * done with the values after this doesn't box them.
+     */
+    public final DoubleStream mapToDouble(final ToDoubleFunction<A> f)
+    {
+        final DoubleStream out = new DoubleStream(domain);
+        Listener l = listen_(out.str.node, new TransactionHandler<A>() {
+            public void run(Transaction trans2, A a) {
+                out.send(trans2, f.applyAsDouble(a));
+            }
+        });
+        out.str.unsafeAddCleanup(l);
+        return out;
+    }
+
     /**
      * Transform the stream's event values into the specified constant value.
      * @param b Constant value.
@@ -205,7 +308,7 @@ public class Stream<A> {
      * any state changes from the current transaction.
      */
 	public final Cell<A> hold(final A initValue) {
-		return Transaction.apply(new Lambda1<Transaction, Cell<A>>() {
+		return TransactionDomain.of(this).apply(new Lambda1<Transaction, Cell<A>>() {
 			public Cell<A> apply(Transaction trans) {
 			    return new Cell<A>(Stream.this, initValue);
 			}
@@ -216,7 +319,7 @@ public class Stream<A> {
 	 * A variant of {@link hold(Object)} with an initial value captured by {@link Cell#sampleLazy()}.
 	 */
 	public final Cell<A> holdLazy(final Lazy<A> initValue) {
-		return Transaction.apply(new Lambda1<Transaction, Cell<A>>() {
+		return TransactionDomain.of(this).apply(new Lambda1<Transaction, Cell<A>>() {
 			public Cell<A> apply(Transaction trans) {
 			    return holdLazy(trans, initValue);
 			}
@@ -252,8 +355,9 @@ public class Stream<A> {
      */
 	public final <B,C> Stream<C> snapshot(final Cell<B> c, final Lambda2<A,B,C> f)
 	{
+	    checkDomain(c.str.domain);
 	    final Stream<A> ev = this;
-		final StreamWithSend<C> out = new StreamWithSend<C>();
+		final StreamWithSend<C> out = new StreamWithSend<C>(domain);
         Listener l = listen_(out.node, new TransactionHandler<A>() {
         	public void run(Transaction trans2, A a) {
 	            out.send(trans2, f.apply(a, c.sampleNoTrans()));
@@ -268,6 +372,7 @@ public class Stream<A> {
      */
 	public final <B,C,D> Stream<D> snapshot(final Cell<B> cb, final Cell<C> cc, final Lambda3<A,B,C,D> fn)
 	{
+	    checkDomain(cc.str.domain);
 		return this.snapshot(cb, new Lambda2<A,B,D>() {
 	    	public D apply(A a, B b) {
 	    		return fn.apply(a, b, cc.sample());
@@ -281,6 +386,8 @@ public class Stream<A> {
      */
 	public final <B,C,D,E> Stream<E> snapshot(final Cell<B> cb, final Cell<C> cc, final Cell<D> cd, final Lambda4<A,B,C,D,E> fn)
 	{
+	    checkDomain(cc.str.domain);
+	    checkDomain(cd.str.domain);
 		return this.snapshot(cb, new Lambda2<A,B,E>() {
 	    	public E apply(A a, B b) {
 	    		return fn.apply(a, b, cc.sample(), cd.sample());
@@ -294,6 +401,9 @@ public class Stream<A> {
      */
 	public final <B,C,D,E,F> Stream<F> snapshot(final Cell<B> cb, final Cell<C> cc, final Cell<D> cd, final Cell<E> ce, final Lambda5<A,B,C,D,E,F> fn)
 	{
+	    checkDomain(cc.str.domain);
+	    checkDomain(cd.str.domain);
+	    checkDomain(ce.str.domain);
 		return this.snapshot(cb, new Lambda2<A,B,F>() {
 	    	public F apply(A a, B b) {
 	    		return fn.apply(a, b, cc.sample(), cd.sample(), ce.sample());
@@ -307,6 +417,10 @@ public class Stream<A> {
      */
 	public final <B,C,D,E,F,G> Stream<G> snapshot(final Cell<B> cb, final Cell<C> cc, final Cell<D> cd, final Cell<E> ce, final Cell<F> cf, final Lambda6<A,B,C,D,E,F,G> fn)
 	{
+	    checkDomain(cc.str.domain);
+	    checkDomain(cd.str.domain);
+	    checkDomain(ce.str.domain);
+	    checkDomain(cf.str.domain);
 		return this.snapshot(cb, new Lambda2<A,B,G>() {
 	    	public G apply(A a, B b) {
 	    		return fn.apply(a, b, cc.sample(), cd.sample(), ce.sample(), cf.sample());
@@ -336,7 +450,7 @@ public class Stream<A> {
 
 	private static <A> Stream<A> merge(final Stream<A> ea, final Stream<A> eb)
 	{
-	    final StreamWithSend<A> out = new StreamWithSend<A>();
+	    final StreamWithSend<A> out = new StreamWithSend<A>(ea.domain != null ? ea.domain : eb.domain);
         final Node left = new Node(0);
         final Node right = out.node;
         Node.Target[] node_target_ = new Node.Target[1];
@@ -370,7 +484,7 @@ public class Stream<A> {
      */
     public final Stream<A> merge(final Stream<A> s, final Lambda2<A,A,A> f)
     {
-	    return Transaction.apply(new Lambda1<Transaction, Stream<A>>() {
+	    return TransactionDomain.of(this, s).apply(new Lambda1<Transaction, Stream<A>>() {
 	    	public Stream<A> apply(Transaction trans) {
                 return Stream.<A>merge(Stream.this, s).coalesce(trans, f);
 	    	}
@@ -388,28 +502,35 @@ public class Stream<A> {
 
     /**
      * Variant of {@link merge(Stream,Lambda2)} that merges a collection of streams.
+     * Simultaneous events are combined from left to right in the order of the collection.
+     * However many streams there are, the returned stream has a single node.
      */
     public static <A> Stream<A> merge(Iterable<Stream<A>> ss, final Lambda2<A,A,A> f) {
-        Vector<Stream<A>> v = new Vector<Stream<A>>();
-        for (Stream<A> s : ss)
+        final List<Stream<A>> v = new ArrayList<Stream<A>>();
+        TransactionDomain domain = null;
+        for (Stream<A> s : ss) {
             v.add(s);
-        return merge(v, 0, v.size(), f);
-    }
-
-    private static <A> Stream<A> merge(Vector<Stream<A>> sas, int start, int end, final Lambda2<A,A,A> f) {
-        int len = end - start;
-        if (len == 0) return new Stream<A>(); else
-        if (len == 1) return sas.get(start); else
-        if (len == 2) return sas.get(start).merge(sas.get(start+1), f); else {
-            int mid = (start + end) / 2;
-            return Stream.<A>merge(sas, start, mid, f).merge(Stream.<A>merge(sas, mid, end, f), f);
+            if (domain == null)
+                domain = s.domain;
         }
+        if (v.isEmpty()) return new Stream<A>(); else
+        if (v.size() == 1) return v.get(0);
+        return (domain != null ? domain : TransactionDomain.current()).apply(new Lambda1<Transaction, Stream<A>>() {
+            public Stream<A> apply(Transaction trans) {
+                StreamWithSend<A> out = new StreamWithSend<A>(trans.domain);
+                MergeHandler<A> h = new MergeHandler<A>(v.size(), f, out);
+                Listener[] ls = new Listener[v.size()];
+                for (int i = 0; i < ls.length; i++)
+                    ls[i] = v.get(i).listen(out.node, trans, h.input(i), false);
+                return out.unsafeAddCleanup(Listener.all(ls));
+            }
+        });
     }
 
 	private final Stream<A> coalesce(Transaction trans1, final Lambda2<A,A,A> f)
 	{
 	    final Stream<A> ev = this;
-	    final StreamWithSend<A> out = new StreamWithSend<A>();
+	    final StreamWithSend<A> out = new StreamWithSend<A>(domain);
         TransactionHandler<A> h = new CoalesceHandler<A>(f, out);
         Listener l = listen(out.node, trans1, h, false);
         return out.unsafeAddCleanup(l);
@@ -430,14 +551,12 @@ public class Stream<A> {
      */
     public final Stream<A> filter(final Lambda1<A,Boolean> predicate)
     {
-        final Stream<A> ev = this;
-        final StreamWithSend<A> out = new StreamWithSend<A>();
-        Listener l = listen_(out.node, new TransactionHandler<A>() {
-        	public void run(Transaction trans2, A a) {
-	            if (predicate.apply(a)) out.send(trans2, a);
-	        }
+        return stateless(new FusedStream.Stage() {
+            @SuppressWarnings("unchecked")
+            public Object apply(Object a) {
+                return predicate.apply((A)a) ? a : FusedStream.NONE;
+            }
         });
-        return out.unsafeAddCleanup(l);
     }
 
     /**
@@ -446,26 +565,25 @@ public class Stream<A> {
      */
     public static <A> Stream<A> filterOptional(final Stream<Optional<A>> ev)
     {
-        final StreamWithSend<A> out = new StreamWithSend<A>();
-        Listener l = ev.listen_(out.node, new TransactionHandler<Optional<A>>() {
-        	public void run(Transaction trans2, Optional<A> oa) {
-	            if (oa.isPresent()) out.send(trans2, oa.get());
-	        }
+        return ev.stateless(new FusedStream.Stage() {
+            public Object apply(Object oa) {
+                return ((Optional<?>)oa).isPresent() ? ((Optional<?>)oa).get() : FusedStream.NONE;
+            }
         });
-        return out.unsafeAddCleanup(l);
     }
 
     /**
      * Return a stream that only outputs events from the input stream
      * when the specified cell's value is true.
      */
-    public final Stream<A> gate(Cell<Boolean> c)
+    public final Stream<A> gate(final Cell<Boolean> c)
     {
-        return Stream.filterOptional(
-            snapshot(c, new Lambda2<A,Boolean,Optional<A>>() {
-                public Optional<A> apply(A a, Boolean pred) { return pred ? Optional.of(a) : Optional.<A>empty(); }
-            })
-        );
+        checkDomain(c.str.domain);
+        return stateless(new FusedStream.Stage() {
+            public Object apply(Object a) {
+                return c.sampleNoTrans() ? a : FusedStream.NONE;
+            }
+        });
     }
 
     /**
@@ -486,7 +604,7 @@ public class Stream<A> {
      */
     public final <B,S> Stream<B> collectLazy(final Lazy<S> initState, final Lambda2<A, S, Tuple2<B, S>> f)
     {
-        return Transaction.<Stream<B>>run(new Lambda0<Stream<B>>() {
+        return TransactionDomain.of(this).<Stream<B>>run(new Lambda0<Stream<B>>() {
             public Stream<B> apply() {
                 final Stream<A> ea = Stream.this;
                 StreamLoop<S> es = new StreamLoop<S>();
@@ -521,7 +639,7 @@ public class Stream<A> {
      */
     public final <S> Cell<S> accumLazy(final Lazy<S> initState, final Lambda2<A, S, S> f)
     {
-        return Transaction.<Cell<S>>run(new Lambda0<Cell<S>>() {
+        return TransactionDomain.of(this).<Cell<S>>run(new Lambda0<Cell<S>>() {
             public Cell<S> apply() {
                 final Stream<A> ea = Stream.this;
                 StreamLoop<S> es = new StreamLoop<S>();
@@ -533,6 +651,66 @@ public class Stream<A> {
         });
     }
 
+    /**
+     * Return a stream that only outputs an event if its value is different from the
+     * last one output, compared with {@link Object#equals(Object)}. The first event is
+     * always output.
+     */
+    public final Stream<A> calm()
+    {
+        return calm(Stream.<A>defaultEquals());
+    }
+
+    /**
+     * A variant of {@link calm()} that uses the specified function to test whether two
+     * values are equal.
+     * @param equals Function that returns true if two values are equal. It must be
+     *    <em>referentially transparent</em>.
+     */
+    public final Stream<A> calm(final Lambda2<A,A,Boolean> equals)
+    {
+        return TransactionDomain.of(this).apply(new Lambda1<Transaction, Stream<A>>() {
+            public Stream<A> apply(Transaction trans) {
+                return calm(trans, null, equals);
+            }
+        });
+    }
+
+    /**
+     * Drop events that are equal to the last one output, which is initially the value
+     * of init, or nothing if init is null. Duplicates are dropped before they're sent,
+     * so they cost nothing downstream.
+     */
+    final Stream<A> calm(Transaction trans1, final Lazy<A> init, final Lambda2<A,A,Boolean> equals)
+    {
+        final StreamWithSend<A> out = new StreamWithSend<A>(domain);
+        Listener l = listen(out.node, trans1, new TransactionHandler<A>() {
+            private A last;
+            private boolean hasLast;
+            public void run(Transaction trans2, A a) {
+                if (!hasLast && init != null) {
+                    last = init.get();
+                    hasLast = true;
+                }
+                if (hasLast && equals.apply(last, a))
+                    return;
+                last = a;
+                hasLast = true;
+                out.send(trans2, a);
+            }
+        }, false);
+        return out.unsafeAddCleanup(l);
+    }
+
+    static <A> Lambda2<A,A,Boolean> defaultEquals()
+    {
+        return new Lambda2<A,A,Boolean>() {
+            public Boolean apply(A a, A b) {
+                return a.equals(b);
+            }
+        };
+    }
+
     /**
      * Return a stream that outputs only one value: the next event of the
      * input stream, starting from the transaction in which once() was invoked.
@@ -543,7 +721,7 @@ public class Stream<A> {
         // the listener.
         final Stream<A> ev = this;
         final Listener[] la = new Listener[1];
-        final StreamWithSend<A> out = new StreamWithSend<A>();
+        final StreamWithSend<A> out = new StreamWithSend<A>(domain);
         la[0] = ev.listen_(out.node, new TransactionHandler<A>() {
         	public void run(Transaction trans, A a) {
 	            if (la[0] != null) {
@@ -556,6 +734,14 @@ public class Stream<A> {
         return out.unsafeAddCleanup(la[0]);
     }
 
+    /**
+     * Called before anything is linked to this stream's node, for streams that only
+     * listen to their input while something might see their output.
+     */
+    void activate(Transaction trans)
+    {
+    }
+
     /**
      * This is not thread-safe, so one of these two conditions must apply:
      * 1. We are within a transaction, since in the current implementation
@@ -567,9 +753,16 @@ public class Stream<A> {
     Stream<A> unsafeAddCleanup(Listener cleanup)
     {
         finalizers.add(cleanup);
+        reapWith(cleanup);
         return this;
     }
 
+    private void reapWith(Listener l) {
+        if (cleanup == null)
+            cleanup = Reaper.register(this);
+        cleanup.add(l.unlinker());
+    }
+
     /**
      * Attach a listener to this stream so that its {@link Listener#unlisten()} is invoked
      * when this stream is garbage collected. Useful for functions that initiate I/O,
@@ -579,18 +772,14 @@ public class Stream<A> {
      * things don't get kept alive when they shouldn't.
      */
     public Stream<A> addCleanup(final Listener cleanup) {
-        return Transaction.run(new Lambda0<Stream<A>>() {
-            public Stream<A> apply() {
+        return TransactionDomain.of(this).apply(new Lambda1<Transaction, Stream<A>>() {
+            public Stream<A> apply(Transaction trans) {
+                // The copy shares our node, so we can't know when it's listened to.
+                activate(trans);
                 List<Listener> fsNew = new ArrayList<Listener>(finalizers);
                 fsNew.add(cleanup);
-                return new Stream<A>(node, fsNew, firings);
+                return new Stream<A>(node, fsNew, firings, domain);
             }
         });
     }
-
-	@Override
-	protected void finalize() throws Throwable {
-		for (Listener l : finalizers)
-			l.unlisten();
-	}
 }
@@ -1,7 +1,8 @@
 package nz.sodium;
 
 /**
- * A forward reference for a {@link Stream} equivalent to the Stream that is referenced. 
+ * A forward reference for a {@link Stream} equivalent to the Stream that is referenced.
+ * It belongs to the {@link TransactionDomain} of the transaction it was constructed in.
  */
 public class StreamLoop<A> extends StreamWithSend<A> {
     boolean assigned = false;
@@ -24,7 +25,7 @@ public class StreamLoop<A> extends StreamWithSend<A> {
             throw new RuntimeException("StreamLoop looped more than once");
         assigned = true;
         final StreamLoop<A> me = this;
-        Transaction.runVoid(new Runnable() {
+        domain.runVoid(new Runnable() {
             public void run() {
                 unsafeAddCleanup(ea_out.listen_(StreamLoop.this.node, new TransactionHandler<A>() {
                     public void run(Transaction trans, A a) {
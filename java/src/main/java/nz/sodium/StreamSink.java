@@ -12,7 +12,13 @@ public class StreamSink<A> extends StreamWithSend<A> {
      * this, then use {@link StreamSink(Lambda2)}.
      */
     public StreamSink() {
-        this(new Lambda2<A,A,A>() {
+        this(TransactionDomain.current());
+    }
+    /**
+     * A variant of {@link StreamSink()} that belongs to the specified domain.
+     */
+    public StreamSink(TransactionDomain domain) {
+        this(domain, new Lambda2<A,A,A>() {
              public A apply(A left, A right) {
                  throw new RuntimeException("send() called more than once per transaction, which isn't allowed. Did you want to combine the events? Then pass a combining function to your StreamSink constructor.");
              }
@@ -26,6 +32,13 @@ public class StreamSink<A> extends StreamWithSend<A> {
      *    {@link Cell#sample()}. Apart from this the function must be <em>referentially transparent</em>.
      */
     public StreamSink(Lambda2<A,A,A> f) {
+        this(TransactionDomain.current(), f);
+    }
+    /**
+     * A variant of {@link StreamSink(Lambda2)} that belongs to the specified domain.
+     */
+    public StreamSink(TransactionDomain domain, Lambda2<A,A,A> f) {
+        super(domain);
         this.coalescer = new CoalesceHandler<A>(f, this);
     }
 
@@ -39,12 +52,48 @@ public class StreamSink<A> extends StreamWithSend<A> {
      * @param a Value to push into the cell.
      */
 	public void send(final A a) {
-		Transaction.run(new Handler<Transaction>() {
+		domain.run(new Handler<Transaction>() {
 			public void run(Transaction trans) {
-                if (trans.inCallback > 0)
-                    throw new RuntimeException("You are not allowed to use send() inside a Sodium callback");
-                coalescer.run(trans, a);
+                send_(trans, a);
             }
 		});
 	}
+
+    /**
+     * Send all the specified values in a single transaction, which is much cheaper than
+     * sending them one at a time. Values are combined as if send() had been called
+     * for each of them inside the same transaction, so this throws an exception if more
+     * than one value is sent to a StreamSink that has no combining function.
+     * @param as Values to push into the stream, in order.
+     */
+    public void sendAll(final Iterable<? extends A> as) {
+		domain.run(new Handler<Transaction>() {
+			public void run(Transaction trans) {
+			    for (A a : as)
+                    send_(trans, a);
+            }
+		});
+    }
+
+    /**
+     * A variant of {@link sendAll(Iterable)} that takes an array.
+     */
+    public void sendAll(final A[] as) {
+		domain.run(new Handler<Transaction>() {
+			public void run(Transaction trans) {
+			    for (A a : as)
+                    send_(trans, a);
+            }
+		});
+    }
+
+    /**
+     * Send a value in the specified transaction, combining it with any value already
+     * sent in it.
+     */
+    final void send_(Transaction trans, A a) {
+        if (trans.domain.inCallback > 0)
+            throw new RuntimeException("You are not allowed to use send() inside a Sodium callback");
+        coalescer.run(trans, a);
+    }
 }
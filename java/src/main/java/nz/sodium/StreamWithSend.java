@@ -1,41 +1,54 @@
 package nz.sodium;
 
-import java.util.HashSet;
-
 class StreamWithSend<A> extends Stream<A> {
+    /**
+     * A stream belonging to the current domain.
+     */
+    StreamWithSend() {
+        this(TransactionDomain.current());
+    }
 
-	protected void send(Transaction trans, final A a) {
-		if (firings.isEmpty())
-			trans.last(new Runnable() {
-				public void run() {
-					firings.clear();
-				}
-			});
-		firings.add(a);
+    StreamWithSend(TransactionDomain domain) {
+        super(domain);
+    }
 
-		HashSet<Node.Target> listeners;
-        synchronized (Transaction.listenersLock) {
-            listeners = new HashSet<Node.Target>(node.listeners);
-        }
-		for (final Node.Target target : listeners) {
-            trans.prioritized(target.node, new Handler<Transaction>() {
-                public void run(Transaction trans2) {
-                    Transaction.inCallback++;
-                    try {  // Don't allow transactions to interfere with Sodium
-                           // internals.
-                        // Dereference the weak reference
-                        TransactionHandler<Unit> uta = target.action.get();
-                        if (uta != null)  // If it hasn't been gc'ed..., call it
-                            ((TransactionHandler<A>)uta).run(trans2, a);
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                    }
-                    finally {
-                        Transaction.inCallback--;
+    // Allocated once per stream rather than once per transaction it fires in.
+    private Runnable clearFirings;
+
+	protected void send(Transaction trans, final A a) {
+		if (firings.isEmpty()) {
+		    if (clearFirings == null)
+		        clearFirings = new Runnable() {
+                    public void run() {
+                        firings.clear();
                     }
-                }
-            });
+                };
+			trans.last(clearFirings);
 		}
+		firings.add(a);
+
+		for (Node.Target target : node.listeners)
+            trans.prioritized(target, a);
 	}
 
+	/**
+	 * Deliver a value to the handler of a listener target, unless the handler has
+	 * been garbage collected.
+	 */
+	@SuppressWarnings("unchecked")
+	static void fire(Transaction trans, Node.Target target, Object a) {
+        trans.domain.inCallback++;
+        try {  // Don't allow transactions to interfere with Sodium
+               // internals.
+            // Dereference the weak reference
+            TransactionHandler<Unit> uta = target.action.get();
+            if (uta != null)  // If it hasn't been gc'ed..., call it
+                ((TransactionHandler<Object>)(TransactionHandler<?>)uta).run(trans, a);
+        } catch (Throwable t) {
+            trans.listenerFailed(t);
+        }
+        finally {
+            trans.domain.inCallback--;
+        }
+	}
 }
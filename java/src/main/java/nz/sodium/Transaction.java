@@ -1,71 +1,45 @@
 package nz.sodium;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
 
 
 /**
  * Functions for controlling transactions.
  */
 public final class Transaction {
-    // Coarse-grained lock that's held during the whole transaction.
-    static final Object transactionLock = new Object();
-    // Fine-grained lock that protects listeners and nodes.
+    // Lock that protects the listeners and nodes of streams that don't belong to
+    // any domain because they can never fire.
     static final Object listenersLock = new Object();
 
+    // The domain this transaction belongs to.
+    final TransactionDomain domain;
+
     // True if we need to re-generate the priority queue.
     boolean toRegen = false;
 
-	private static class Entry implements Comparable<Entry> {
-		private final Node rank;
-		private final Handler<Transaction> action;
-		private static long nextSeq;
-		private long seq;
-
-		public Entry(Node rank, Handler<Transaction> action) {
-			this.rank = rank;
-			this.action = action;
-			this.seq = nextSeq++;
-		}
-
-		@Override
-		public int compareTo(Entry o) {
-			int answer = rank.compareTo(o.rank);
-			if (answer == 0) {  // Same rank: preserve chronological sequence.
-				if (seq < o.seq) answer = -1; else
-				if (seq > o.seq) answer = 1;
-			}
-			return answer;
-		}
-
-	}
-
-	private final PriorityQueue<Entry> prioritizedQ = new PriorityQueue<Entry>();
-	private final Set<Entry> entries = new HashSet<Entry>();
-	private final List<Runnable> lastQ = new ArrayList<Runnable>();
+	private final PrioritizedQueue prioritizedQ;
+	private final List<Runnable> lastQ;
 	private Map<Integer, Handler<Transaction>> postQ;
+	// The version stamp of the cell values this transaction commits, or 0 if it
+	// hasn't updated any cells.
+	private long version;
 
-	Transaction() {
+	Transaction(TransactionDomain domain) {
+	    this.domain = domain;
+	    this.prioritizedQ = domain.takeQueue();
+	    this.lastQ = domain.takeLastQ();
 	}
 
-	private static Transaction currentTransaction;
-    static int inCallback;
-    private static List<Runnable> onStartHooks = new ArrayList<Runnable>();
-    private static boolean runningOnStartHooks = false;
-
 	/**
 	 * Return the current transaction, or null if there isn't one.
 	 */
 	static Transaction getCurrentTransaction() {
-        synchronized (transactionLock) {
-            return currentTransaction;
-        }
+	    TransactionDomain domain = TransactionDomain.active();
+	    return domain == null ? null : domain.currentTransaction;
 	}
 
 	/**
@@ -73,22 +47,10 @@ public final class Transaction {
 	 *
 	 * In most cases this is not needed, because the primitives always create their own
 	 * transaction automatically, but it is needed in some circumstances.
+	 * The transaction belongs to {@link TransactionDomain#current()}.
 	 */
 	public static void runVoid(Runnable code) {
-        synchronized (transactionLock) {
-            // If we are already inside a transaction (which must be on the same
-            // thread otherwise we wouldn't have acquired transactionLock), then
-            // keep using that same transaction.
-            Transaction transWas = currentTransaction;
-            try {
-                startIfNecessary();
-                code.run();
-            } finally {
-                if (transWas == null)
-                    currentTransaction.close();
-                currentTransaction = transWas;
-            }
-        }
+	    TransactionDomain.current().runVoid(code);
 	}
 
 	/**
@@ -97,39 +59,14 @@ public final class Transaction {
 	 *
 	 * In most cases this is not needed, because the primitives always create their own
 	 * transaction automatically, but it is needed in some circumstances.
+	 * The transaction belongs to {@link TransactionDomain#current()}.
 	 */
 	public static <A> A run(Lambda0<A> code) {
-        synchronized (transactionLock) {
-            // If we are already inside a transaction (which must be on the same
-            // thread otherwise we wouldn't have acquired transactionLock), then
-            // keep using that same transaction.
-            Transaction transWas = currentTransaction;
-            try {
-                startIfNecessary();
-                return code.apply();
-            } finally {
-                if (transWas == null)
-                    currentTransaction.close();
-                currentTransaction = transWas;
-            }
-        }
+	    return TransactionDomain.current().run(code);
 	}
 
 	static void run(Handler<Transaction> code) {
-        synchronized (transactionLock) {
-            // If we are already inside a transaction (which must be on the same
-            // thread otherwise we wouldn't have acquired transactionLock), then
-            // keep using that same transaction.
-            Transaction transWas = currentTransaction;
-            try {
-                startIfNecessary();
-                code.run(currentTransaction);
-            } finally {
-                if (transWas == null)
-                    currentTransaction.close();
-                currentTransaction = transWas;
-            }
-        }
+	    TransactionDomain.current().run(code);
 	}
 
 	/**
@@ -140,48 +77,33 @@ public final class Transaction {
 	 * The main use case of this is the implementation of a time/alarm system.
 	 */
 	public static void onStart(Runnable r) {
-        synchronized (transactionLock) {
-            onStartHooks.add(r);
-        }
+	    TransactionDomain.current().onStart(r);
 	}
 
 	static <A> A apply(Lambda1<Transaction, A> code) {
-        synchronized (transactionLock) {
-            // If we are already inside a transaction (which must be on the same
-            // thread otherwise we wouldn't have acquired transactionLock), then
-            // keep using that same transaction.
-            Transaction transWas = currentTransaction;
-            try {
-                startIfNecessary();
-                return code.apply(currentTransaction);
-            } finally {
-                if (transWas == null)
-                    currentTransaction.close();
-                currentTransaction = transWas;
-            }
-        }
+	    return TransactionDomain.current().apply(code);
 	}
 
-	private static void startIfNecessary() {
-        if (currentTransaction == null) {
-            if (!runningOnStartHooks) {
-                runningOnStartHooks = true;
-                try {
-                    for (Runnable r : onStartHooks)
-                        r.run();
-                }
-                finally {
-                    runningOnStartHooks = false;
-                }
-            }
-            currentTransaction = new Transaction();
-        }
+	void prioritized(Node rank, Handler<Transaction> action) {
+		prioritizedQ.add(rank, action);
 	}
 
-	void prioritized(Node rank, Handler<Transaction> action) {
-	    Entry e = new Entry(rank, action);
-		prioritizedQ.add(e);
-		entries.add(e);
+	/**
+	 * Deliver a stream's value to one of its listener targets, in order of the rank of
+	 * the target's node.
+	 */
+	void prioritized(Node.Target target, Object value) {
+		prioritizedQ.add(target, value);
+	}
+
+	/**
+	 * The version stamp of the cell values this transaction commits. Versions
+	 * increase in the order in which transactions of a domain close.
+	 */
+	long version() {
+	    if (version == 0)
+	        version = ++domain.lastVersion;
+	    return version;
 	}
 
 	/**
@@ -210,49 +132,139 @@ public final class Transaction {
 	    postQ.put(childIx, neu);
 	}
 
+	// How many times snapshot() races the writers before it makes cells keep all
+	// their versions until it has finished.
+	private static final int SNAPSHOT_ATTEMPTS = 4;
+
+	/**
+	 * Sample the specified cells, giving their values as of the same transaction.
+	 * Outside of a transaction, this is the last transaction that has completed.
+	 * It doesn't take any locks or wait for a transaction that's running, and
+	 * transactions don't wait for it. If the cells keep being updated faster than it
+	 * can read them, it stops them discarding the old values it needs until it has
+	 * finished, so it always completes. The cells must all belong to the same
+	 * {@link TransactionDomain}, and the values are returned in the same order.
+	 * <p>
+	 * The exception is a cell whose lazy initial value hasn't been worked out yet.
+	 * Working it out can run code that needs the domain's lock, so then the snapshot
+	 * is taken in a transaction of the cells' domain, like {@link Cell#sample()}
+	 * does. That waits for a transaction that's running, and it fails if it's done
+	 * from inside a transaction of another domain. It only happens the first time
+	 * such a cell is read.
+	 */
+	public static List<Object> snapshot(Cell<?>... cells) {
+	    TransactionDomain domain = null;
+	    for (Cell<?> c : cells) {
+	        TransactionDomain d = c.str.domain;
+	        if (d != null) {
+	            if (domain != null && d != domain)
+	                throw new RuntimeException("Cells from different TransactionDomains can't be sampled in the same snapshot.");
+	            domain = d;
+	        }
+	    }
+	    final Object[] values = new Object[cells.length];
+	    if (domain != null && domain == TransactionDomain.active())
+	        return sampleAll(cells, values);
+	    int lazy = -1;
+	    for (int attempt = 1; lazy < 0; attempt++) {
+	        // Without a domain, nothing can be updated, so the first attempt succeeds.
+	        boolean pin = domain != null && attempt > SNAPSHOT_ATTEMPTS;
+	        if (pin)
+	            domain.versionsPinned.incrementAndGet();
+	        try {
+	            long version = domain == null ? 0 : domain.committedVersion;
+	            int i = 0;
+	            for (; i < cells.length; i++) {
+	                Cell.Version<?> v = cells[i].committedAt(version);
+	                if (v == null)
+	                    break;
+	                if (!v.isConcrete()) {
+	                    lazy = i;
+	                    break;
+	                }
+	                values[i] = v.value();
+	            }
+	            if (i == cells.length)
+	                return Arrays.asList(values);
+	            // Otherwise a cell has been updated too many times since that
+	            // transaction, so try again with a later one.
+	        }
+	        finally {
+	            if (pin)
+	                domain.versionsPinned.decrementAndGet();
+	        }
+	    }
+	    final Cell<?>[] cells_ = cells;
+	    return TransactionDomain.of(cells[lazy].str).apply(new Lambda1<Transaction, List<Object>>() {
+	        public List<Object> apply(Transaction trans) {
+	            return sampleAll(cells_, values);
+	        }
+	    });
+	}
+
+	private static List<Object> sampleAll(Cell<?>[] cells, Object[] values) {
+	    for (int i = 0; i < cells.length; i++)
+	        values[i] = cells[i].sampleNoTrans();
+	    return Arrays.asList(values);
+	}
+
 	/**
      * Execute the specified code after the current transaction is closed,
      * or immediately if there is no current transaction.
      */
 	public static void post(final Runnable action) {
-	    Transaction.run(new Handler<Transaction>() {
-            public void run(Transaction trans) {
-                // -1 will mean it runs before anything split/deferred, and will run
-                // outside a transaction context.
-                trans.post_(-1, new Handler<Transaction>() {
-                    public void run(Transaction trans) {
-                        action.run();
-                    }
-                });
-            }
-	    });
+	    TransactionDomain.current().post(action);
 	}
 
 	/**
 	 * If the priority queue has entries in it when we modify any of the nodes'
 	 * ranks, then we need to re-generate it to make sure it's up-to-date.
 	 */
-	private void checkRegen()
+	private boolean checkRegen()
 	{
 	    if (toRegen) {
 	        toRegen = false;
-	        prioritizedQ.clear();
-	        for (Entry e : entries)
-	            prioritizedQ.add(e);
+	        prioritizedQ.ranksChanged();
+	        return true;
 	    }
+	    return false;
 	}
 
-	void close() {
+	/**
+	 * Report an exception thrown by a listener, which we catch so the transaction can
+	 * carry on.
+	 */
+	void listenerFailed(Throwable t) {
+	    t.printStackTrace();
+	    Instrumentation instrumentation = domain.instrumentation;
+	    if (instrumentation != null)
+	        instrumentation.listenerFailed(t);
+	}
+
+	/**
+	 * @param instrumentation What to report this transaction's measurements to, or
+	 *    null if it isn't being measured. The caller passes it in along with the time
+	 *    the transaction started, so the transaction doesn't need to carry them.
+	 */
+	void close(Instrumentation instrumentation, long startNanos) {
+	    int prioritized = 0;
+	    int regens = 0;
+	    int post = 0;
 	    while (true) {
-	        checkRegen();
+	        if (checkRegen())
+	            regens++;
 		    if (prioritizedQ.isEmpty()) break;
-		    Entry e = prioritizedQ.remove();
-		    entries.remove(e);
-			e.action.run(this);
+		    prioritizedQ.runNext(this);
+		    prioritized++;
 		}
+	    int last = lastQ.size();
 		for (Runnable action : lastQ)
 			action.run();
 		lastQ.clear();
+		// All the cells this transaction updated have been given their new values,
+		// so snapshots can now see them.
+		if (version != 0)
+		    domain.committedVersion = version;
 		if (postQ != null) {
 		    while (!postQ.isEmpty()) {
 		        Iterator<Map.Entry<Integer, Handler<Transaction>>> iter = postQ.entrySet().iterator();
@@ -261,27 +273,39 @@ public final class Transaction {
 		            int ix = e.getKey();
                     Handler<Transaction> h = e.getValue();
                     iter.remove();
-                    Transaction parent = currentTransaction;
+                    post++;
+                    Transaction parent = domain.currentTransaction;
                     try {
                         if (ix >= 0) {
-                            Transaction trans = new Transaction();
-                            currentTransaction = trans;
+                            Instrumentation instr = domain.instrumentation;
+                            long start = 0;
+                            if (instr != null) {
+                                instr.transactionStarted(0);
+                                start = System.nanoTime();
+                            }
+                            Transaction trans = new Transaction(domain);
+                            domain.currentTransaction = trans;
                             try {
                                 h.run(trans);
                             } finally {
-                                trans.close();
+                                trans.close(instr, start);
                             }
                         }
                         else {
-                            currentTransaction = null;
+                            domain.currentTransaction = null;
                             h.run(null);
                         }
                     }
                     finally {
-                        currentTransaction = parent;
+                        domain.currentTransaction = parent;
                     }
 		        }
 		    }
 		}
+		domain.releaseQueue(prioritizedQ);
+		domain.releaseLastQ(lastQ);
+		if (instrumentation != null)
+		    instrumentation.transactionClosed(System.nanoTime() - startNanos,
+		        prioritized, regens, last, post);
 	}
 }
@@ -0,0 +1,362 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An independent world of FRP logic with its own transactions. Transactions in
+ * different domains don't lock each other out, so FRP networks that share no
+ * streams or cells can run on separate threads in parallel.
+ * <P>
+ * Sinks are bound to a domain when they are constructed, and everything derived
+ * from them belongs to the same domain. Primitives that are constructed without
+ * an explicit domain use {@link current()}. Combining streams or cells
+ * from different domains is not allowed, and neither is starting a transaction
+ * in one domain from inside a transaction of another. Use {@link bridge(Stream)}
+ * to pass events from one domain to another.
+ */
+public final class TransactionDomain {
+    /**
+     * The domain used by code that doesn't specify one.
+     */
+    public static final TransactionDomain DEFAULT = new TransactionDomain();
+
+    // The domain whose transaction the current thread is in, if any.
+    private static final ThreadLocal<TransactionDomain> active = new ThreadLocal<TransactionDomain>();
+
+    // Coarse-grained lock that's held during the whole transaction.
+    final Object transactionLock = new Object();
+    // Fine-grained lock that protects listeners and nodes.
+    final Object listenersLock = new Object();
+
+    Transaction currentTransaction;
+    int inCallback;
+    private final List<Runnable> onStartHooks = new ArrayList<Runnable>();
+    private boolean runningOnStartHooks = false;
+    // The thread that holds transactionLock, if any. Only ever compared against the
+    // current thread, which is reliable without synchronization because a thread only
+    // sees itself here if it wrote it.
+    private Thread owner;
+    private ExecutorService bridgeExecutor;
+    // Empty queues left over from a previous transaction.
+    private PrioritizedQueue spareQueue;
+    private List<Runnable> spareLastQ;
+    // Listeners returned by Stream.listen() that haven't been unlistened, so they
+    // aren't garbage collected. Concurrent so that listening and unlistening from many
+    // threads don't contend with each other.
+    final Set<Listener> keepAlive = ConcurrentHashMap.<Listener>newKeySet();
+    volatile Instrumentation instrumentation;
+    // The last version stamp given to a transaction, and the latest one whose cell
+    // values are all visible, for reading consistent snapshots without the lock.
+    long lastVersion;
+    volatile long committedVersion;
+    // How many snapshots have given up racing the writers. While there are any, cells
+    // keep all their versions, so those snapshots are sure to find what they need.
+    final AtomicInteger versionsPinned = new AtomicInteger();
+    // What the current transaction is reporting to, and when it started.
+    private Instrumentation measuring;
+    private long measuringSince;
+
+    /**
+     * Create a new domain that is independent of all other domains.
+     */
+    public TransactionDomain() {
+    }
+
+    /**
+     * Return the domain of the transaction the calling thread is currently in,
+     * or {@link DEFAULT} if it's not in a transaction.
+     */
+    public static TransactionDomain current() {
+        TransactionDomain d = active.get();
+        return d == null ? DEFAULT : d;
+    }
+
+    /**
+     * True if the calling thread is inside a transaction of this domain.
+     */
+    public boolean inTransaction() {
+        return active.get() == this;
+    }
+
+    /**
+     * The number of listeners in this domain that were registered with
+     * {@link Stream#listen(Handler)} and haven't been unlistened yet. If this keeps
+     * growing, listeners are probably being leaked.
+     */
+    public int liveListenerCount() {
+        return keepAlive.size();
+    }
+
+    /**
+     * Start reporting measurements of this domain's transactions to the specified
+     * instrumentation, or stop if it's null. Transactions that have already started
+     * report to whatever was installed when they started.
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * The instrumentation installed with {@link setInstrumentation(Instrumentation)},
+     * or null if there isn't any.
+     */
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Return the domain of the transaction the calling thread is currently in,
+     * or null if it's not in a transaction.
+     */
+    static TransactionDomain active() {
+        return active.get();
+    }
+
+    /**
+     * The domain to run an operation on the specified stream in.
+     */
+    static TransactionDomain of(Stream<?> s) {
+        return s.domain != null ? s.domain : current();
+    }
+
+    /**
+     * The domain to run an operation combining the two specified streams in.
+     */
+    static TransactionDomain of(Stream<?> a, Stream<?> b) {
+        return a.domain != null ? a.domain : of(b);
+    }
+
+    /**
+     * Run the specified code inside a single transaction of this domain.
+     * @see Transaction#runVoid(Runnable)
+     */
+    public void runVoid(Runnable code) {
+        boolean outermost = enter();
+        long requested = lockRequested(outermost);
+        synchronized (transactionLock) {
+            // If we are already inside a transaction (which must be on the same
+            // thread otherwise we wouldn't have acquired transactionLock), then
+            // keep using that same transaction.
+            Transaction transWas = currentTransaction;
+            try {
+                begin(outermost, requested);
+                code.run();
+            } finally {
+                end(transWas, outermost);
+            }
+        }
+    }
+
+    /**
+     * Run the specified code inside a single transaction of this domain, with the
+     * contained code returning a value of the parameter type A.
+     * @see Transaction#run(Lambda0)
+     */
+    public <A> A run(Lambda0<A> code) {
+        boolean outermost = enter();
+        long requested = lockRequested(outermost);
+        synchronized (transactionLock) {
+            Transaction transWas = currentTransaction;
+            try {
+                begin(outermost, requested);
+                return code.apply();
+            } finally {
+                end(transWas, outermost);
+            }
+        }
+    }
+
+    void run(Handler<Transaction> code) {
+        boolean outermost = enter();
+        long requested = lockRequested(outermost);
+        synchronized (transactionLock) {
+            Transaction transWas = currentTransaction;
+            try {
+                begin(outermost, requested);
+                code.run(currentTransaction);
+            } finally {
+                end(transWas, outermost);
+            }
+        }
+    }
+
+    <A> A apply(Lambda1<Transaction, A> code) {
+        boolean outermost = enter();
+        long requested = lockRequested(outermost);
+        synchronized (transactionLock) {
+            Transaction transWas = currentTransaction;
+            try {
+                begin(outermost, requested);
+                return code.apply(currentTransaction);
+            } finally {
+                end(transWas, outermost);
+            }
+        }
+    }
+
+    /**
+     * Add a runnable that will be executed whenever a transaction is started in
+     * this domain.
+     * @see Transaction#onStart(Runnable)
+     */
+    public void onStart(Runnable r) {
+        enter();
+        synchronized (transactionLock) {
+            onStartHooks.add(r);
+        }
+    }
+
+    /**
+     * Execute the specified code after the current transaction of this domain is
+     * closed, or immediately if there is no current transaction.
+     * @see Transaction#post(Runnable)
+     */
+    public void post(final Runnable action) {
+        run(new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                // -1 will mean it runs before anything split/deferred, and will run
+                // outside a transaction context.
+                trans.post_(-1, new Handler<Transaction>() {
+                    public void run(Transaction trans) {
+                        action.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return a stream belonging to this domain that fires with the events of the
+     * specified stream, which may belong to another domain. This is the only
+     * supported way for events to cross between domains.
+     * <P>
+     * Each event is delivered in its own transaction of this domain some time after
+     * the source transaction has completed, on a thread owned by this domain. Events
+     * arrive in the order in which their source transactions ran, and events bridged
+     * into this domain from several streams keep that order relative to each other.
+     * It must be invoked outside of any transaction.
+     */
+    public <A> Stream<A> bridge(Stream<A> s) {
+        final StreamSink<A> out = new StreamSink<A>(this);
+        final ExecutorService executor = bridgeExecutor();
+        Listener l = s.listen_(Node.NULL, new TransactionHandler<A>() {
+            public void run(Transaction trans, final A a) {
+                // Hand it over once the source transaction has committed, so this
+                // domain can't see anything the source might not go through with.
+                trans.post_(-1, new Handler<Transaction>() {
+                    public void run(Transaction trans) {
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                out.send(a);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        return out.addCleanup(l);
+    }
+
+    private synchronized ExecutorService bridgeExecutor() {
+        if (bridgeExecutor == null)
+            bridgeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "sodium-bridge");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        return bridgeExecutor;
+    }
+
+    PrioritizedQueue takeQueue() {
+        PrioritizedQueue q = spareQueue;
+        if (q == null)
+            return PrioritizedQueue.create();
+        spareQueue = null;
+        return q;
+    }
+
+    void releaseQueue(PrioritizedQueue q) {
+        spareQueue = q;
+    }
+
+    List<Runnable> takeLastQ() {
+        List<Runnable> q = spareLastQ;
+        if (q == null)
+            return new ArrayList<Runnable>();
+        spareLastQ = null;
+        return q;
+    }
+
+    void releaseLastQ(List<Runnable> q) {
+        spareLastQ = q;
+    }
+
+    /**
+     * Check that the calling thread isn't inside a transaction of another domain,
+     * which could deadlock. This must be done before we acquire transactionLock.
+     * @return true if we aren't already inside a transaction of this domain.
+     */
+    private boolean enter() {
+        if (owner == Thread.currentThread())
+            return false;
+        if (active.get() != null)
+            throw new RuntimeException("Can't start a transaction in one TransactionDomain while inside a transaction of another. Use TransactionDomain.bridge() to pass events between domains.");
+        return true;
+    }
+
+    /**
+     * The time at which we start waiting for transactionLock, if we're going to
+     * measure how long we waited, or else 0.
+     */
+    private long lockRequested(boolean outermost) {
+        return outermost && instrumentation != null ? System.nanoTime() : 0;
+    }
+
+    private void begin(boolean outermost, long lockRequested) {
+        long lockWait = lockRequested == 0 ? 0 : System.nanoTime() - lockRequested;
+        if (outermost) {
+            owner = Thread.currentThread();
+            active.set(this);
+        }
+        if (currentTransaction == null) {
+            if (!runningOnStartHooks) {
+                runningOnStartHooks = true;
+                try {
+                    for (Runnable r : onStartHooks)
+                        r.run();
+                }
+                finally {
+                    runningOnStartHooks = false;
+                }
+            }
+            measuring = instrumentation;
+            if (measuring != null) {
+                measuring.transactionStarted(lockWait);
+                measuringSince = System.nanoTime();
+            }
+            currentTransaction = new Transaction(this);
+        }
+    }
+
+    private void end(Transaction transWas, boolean outermost) {
+        try {
+            if (transWas == null && currentTransaction != null)
+                currentTransaction.close(measuring, measuringSince);
+        } finally {
+            currentTransaction = transWas;
+            if (outermost) {
+                owner = null;
+                active.remove();
+            }
+        }
+    }
+}
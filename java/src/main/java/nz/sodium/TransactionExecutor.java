@@ -0,0 +1,168 @@
+package nz.sodium;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Accepts sends from any number of threads without blocking them on the domain's
+ * transaction lock. Submissions go into a lock-free queue, and a single thread owned
+ * by the executor takes them off in order and runs each one in its own transaction,
+ * so the result is the same as if the submitting thread had called send() itself.
+ * <P>
+ * Each submission returns a future that completes once its transaction has closed,
+ * or completes exceptionally with whatever the transaction threw.
+ */
+public final class TransactionExecutor {
+    private static final class Item {
+        Item(Handler<Transaction> code) {
+            this.code = code;
+        }
+        final Handler<Transaction> code;
+        final CompletableFuture<Unit> done = new CompletableFuture<Unit>();
+    }
+
+    private final TransactionDomain domain;
+    private final ConcurrentLinkedQueue<Item> queue = new ConcurrentLinkedQueue<Item>();
+    // Null if the queue is unbounded.
+    private final Semaphore capacity;
+    private final Thread thread;
+    private volatile boolean parked;
+    private volatile boolean shutdown;
+    // Set by the executor's thread just before it exits.
+    private volatile boolean terminated;
+
+    /**
+     * An executor for the current domain with an unbounded queue, draining it on a
+     * daemon thread.
+     */
+    public TransactionExecutor() {
+        this(TransactionDomain.current(), 0, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "sodium-executor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * An executor for the specified domain.
+     * @param capacity The most submissions that may be waiting at once, or 0 for no limit.
+     *    When the queue is full, submitting blocks until there is room.
+     * @param threadFactory Creates the thread that runs the transactions, which may be
+     *    a virtual thread.
+     */
+    public TransactionExecutor(TransactionDomain domain, int capacity, ThreadFactory threadFactory) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity can't be negative");
+        this.domain = domain;
+        this.capacity = capacity == 0 ? null : new Semaphore(capacity);
+        this.thread = threadFactory.newThread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        });
+        thread.start();
+    }
+
+    /**
+     * Send a value into the specified stream in its own transaction, as
+     * {@link StreamSink#send(Object)} would.
+     */
+    public <A> CompletableFuture<Unit> send(final StreamSink<A> s, final A a) {
+        if (s.domain != domain)
+            throw new RuntimeException("StreamSink belongs to a different TransactionDomain from the executor");
+        return submit(new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                s.send_(trans, a);
+            }
+        });
+    }
+
+    /**
+     * Send a value into the specified cell in its own transaction, as
+     * {@link CellSink#send(Object)} would.
+     */
+    public <A> CompletableFuture<Unit> send(CellSink<A> c, A a) {
+        return send((StreamSink<A>)c.str, a);
+    }
+
+    /**
+     * Run the specified code in its own transaction.
+     */
+    public CompletableFuture<Unit> submit(final Runnable code) {
+        return submit(new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                code.run();
+            }
+        });
+    }
+
+    private CompletableFuture<Unit> submit(Handler<Transaction> code) {
+        if (shutdown)
+            throw new IllegalStateException("TransactionExecutor has been shut down");
+        if (capacity != null)
+            capacity.acquireUninterruptibly();
+        Item item = new Item(code);
+        queue.offer(item);
+        if (parked)
+            LockSupport.unpark(thread);
+        // If we lost a race with shutdown(), don't leave the future hanging.
+        if (terminated && queue.remove(item))
+            reject(item);
+        return item.done;
+    }
+
+    /**
+     * Stop accepting submissions. Those already submitted are still run, after which
+     * the executor's thread exits.
+     */
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Wait for the executor's thread to exit after {@link shutdown()}.
+     */
+    public void awaitTermination() throws InterruptedException {
+        thread.join();
+    }
+
+    private void reject(Item item) {
+        if (capacity != null)
+            capacity.release();
+        item.done.completeExceptionally(new IllegalStateException("TransactionExecutor has been shut down"));
+    }
+
+    private void drain() {
+        while (true) {
+            Item item = queue.poll();
+            if (item == null) {
+                if (shutdown && queue.isEmpty()) {
+                    terminated = true;
+                    while ((item = queue.poll()) != null)
+                        reject(item);
+                    return;
+                }
+                parked = true;
+                // Check again, in case something was added before it saw parked.
+                if (queue.isEmpty() && !shutdown)
+                    LockSupport.park(this);
+                parked = false;
+                continue;
+            }
+            if (capacity != null)
+                capacity.release();
+            try {
+                domain.run(item.code);
+                item.done.complete(Unit.UNIT);
+            } catch (Throwable t) {
+                item.done.completeExceptionally(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package nz.sodium;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link Instrumentation} that records the measurements of each transaction into
+ * histograms, which can be read at any time from any thread. One recorder can be
+ * installed in several domains to get their combined figures.
+ * <P>
+ * Like HdrHistogram, the histograms have a fixed size and record any non-negative
+ * long without allocating. Values are kept to within 1/64 (about 1.6%) of their true
+ * value, and values below 128 exactly.
+ */
+public final class TransactionRecorder implements Instrumentation {
+    private final Recording durations = new Recording();
+    private final Recording lockWaits = new Recording();
+    private final Recording prioritized = new Recording();
+    private final Recording regens = new Recording();
+    private final Recording last = new Recording();
+    private final Recording post = new Recording();
+    private final AtomicLong listenerFailures = new AtomicLong();
+
+    public void transactionStarted(long lockWaitNanos) {
+        lockWaits.record(lockWaitNanos);
+    }
+
+    public void transactionClosed(long durationNanos, int prioritized, int regens, int last, int post) {
+        this.durations.record(durationNanos);
+        this.prioritized.record(prioritized);
+        this.regens.record(regens);
+        this.last.record(last);
+        this.post.record(post);
+    }
+
+    public void listenerFailed(Throwable t) {
+        listenerFailures.incrementAndGet();
+    }
+
+    /**
+     * How long transactions took from start to close, in nanoseconds.
+     */
+    public Histogram durations() {
+        return durations.snapshot();
+    }
+
+    /**
+     * How long threads waited for the transaction lock before starting a transaction,
+     * in nanoseconds.
+     */
+    public Histogram lockWaits() {
+        return lockWaits.snapshot();
+    }
+
+    /**
+     * The number of prioritized actions run per transaction.
+     */
+    public Histogram prioritized() {
+        return prioritized.snapshot();
+    }
+
+    /**
+     * The number of times per transaction its prioritized actions had to be re-ordered.
+     */
+    public Histogram regens() {
+        return regens.snapshot();
+    }
+
+    /**
+     * The number of actions run per transaction after its prioritized actions.
+     */
+    public Histogram last() {
+        return last.snapshot();
+    }
+
+    /**
+     * The number of actions posted to run after each transaction.
+     */
+    public Histogram post() {
+        return post.snapshot();
+    }
+
+    /**
+     * The number of exceptions thrown by listeners.
+     */
+    public long listenerFailures() {
+        return listenerFailures.get();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        durations.reset();
+        lockWaits.reset();
+        prioritized.reset();
+        regens.reset();
+        last.reset();
+        post.reset();
+        listenerFailures.set(0);
+    }
+
+    // Each power of two above 128 is divided into this many buckets.
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * The highest value that goes into the specified bucket.
+     */
+    private static long highestIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static final class Recording {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0)
+                value = 0;
+            counts.incrementAndGet(bucketOf(value));
+            total.addAndGet(value);
+            long m = max.get();
+            while (value > m && !max.compareAndSet(m, value))
+                m = max.get();
+        }
+
+        Histogram snapshot() {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                c[i] = counts.get(i);
+            return new Histogram(c, total.get(), max.get());
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                counts.set(i, 0);
+            total.set(0);
+            max.set(0);
+        }
+    }
+
+    /**
+     * A snapshot of the values recorded for one measurement.
+     */
+    public static final class Histogram {
+        private Histogram(long[] counts, long total, long max) {
+            this.counts = counts;
+            this.total = total;
+            this.max = max;
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            this.count = n;
+        }
+        private final long[] counts;
+        private final long total;
+        private final long max;
+        private final long count;
+
+        /**
+         * The number of values recorded.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * The exact total of the values recorded.
+         */
+        public long total() {
+            return total;
+        }
+
+        /**
+         * The exact largest value recorded, or 0 if there are none.
+         */
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0.0 : (double)total / count;
+        }
+
+        /**
+         * The value that the specified percentage of recorded values are less than or
+         * equal to, to within the histogram's precision, or 0 if there are none.
+         * @param percentile From 0 to 100, e.g. 99.9.
+         */
+        public long percentile(double percentile) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(highestIn(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + String.format("%.1f", mean()) +
+                " p50=" + percentile(50) + " p99=" + percentile(99) +
+                " p99.9=" + percentile(99.9) + " max=" + max;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package nz.sodium.time;
 
+import nz.sodium.TransactionDomain;
+
 /**
  * A timer system implementation using Java's {@link System#currentTimeMillis()} clock.
  */
@@ -7,5 +9,12 @@ public class MillisecondsTimerSystem extends TimerSystem<Long> {
     public MillisecondsTimerSystem() {
         super(new MillisecondsTimerSystemImpl());
     }
+
+    /**
+     * A timer system whose alarms fire in the specified domain.
+     */
+    public MillisecondsTimerSystem(TransactionDomain domain) {
+        super(new MillisecondsTimerSystemImpl(), domain);
+    }
 }
 
@@ -0,0 +1,39 @@
+package nz.sodium.time;
+
+import nz.sodium.TransactionDomain;
+
+/**
+ * A timer system implementation using Java's {@link System#nanoTime()} clock, for
+ * alarms that need better than millisecond resolution. The clock's origin is arbitrary,
+ * so its times are only meaningful relative to each other.
+ */
+public class NanosecondsTimerSystem extends TimerSystem<Long> {
+    public NanosecondsTimerSystem() {
+        this(0);
+    }
+
+    /**
+     * A timer system whose timer thread spins instead of parking for the last part of
+     * each wait, which makes alarms more punctual at the cost of keeping a CPU busy.
+     * @param spinNanos How many nanoseconds before an alarm is due to start spinning,
+     *    or 0 to never spin.
+     */
+    public NanosecondsTimerSystem(long spinNanos) {
+        super(new NanosecondsTimerSystemImpl(spinNanos));
+    }
+
+    /**
+     * A timer system whose alarms fire in the specified domain.
+     */
+    public NanosecondsTimerSystem(TransactionDomain domain) {
+        this(domain, 0);
+    }
+
+    /**
+     * A variant of {@link NanosecondsTimerSystem(long)} whose alarms fire in the
+     * specified domain.
+     */
+    public NanosecondsTimerSystem(TransactionDomain domain, long spinNanos) {
+        super(new NanosecondsTimerSystemImpl(spinNanos), domain);
+    }
+}
@@ -0,0 +1,123 @@
+package nz.sodium.time;
+
+import java.util.TreeSet;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A timer system implementation using {@link System#nanoTime()}. The timer thread parks
+ * until the next timer is due, and is only woken early when a new timer is set that is
+ * earlier than the one it's waiting for. Optionally it stops parking a little before
+ * the timer is due and spins for the rest, which costs a CPU but avoids the operating
+ * system's wake-up latency.
+ */
+class NanosecondsTimerSystemImpl implements TimerSystemImpl<Long> {
+    private final class NanoTimer implements Timer, Comparable<NanoTimer> {
+        private NanoTimer(long t, long seq, Runnable callback) {
+            this.t = t;
+            this.seq = seq;
+            this.callback = callback;
+        }
+        private final long t;
+        private final long seq;
+        private final Runnable callback;
+        public void cancel() {
+            synchronized (lock) {
+                timers.remove(this);
+            }
+        }
+        @Override
+        public int compareTo(NanoTimer o) {
+            // nanoTime() values can wrap, so only their differences are meaningful.
+            long d = t - o.t;
+            if (d < 0) return -1;
+            if (d > 0) return 1;
+            if (seq < o.seq) return -1;
+            if (seq > o.seq) return 1;
+            return 0;
+        }
+    }
+    private final Object lock = new Object();
+    private long nextSeq = 0;
+    private final TreeSet<NanoTimer> timers = new TreeSet<NanoTimer>();
+    private final long spinNanos;
+    // Set when a timer is set that's earlier than the one the timer thread is waiting
+    // for, to stop it spinning.
+    private volatile boolean rescan;
+
+    /**
+     * Run the timer that is due, if any, or else return how long until the next one
+     * is, or Long.MAX_VALUE if there are none.
+     */
+    private long timeTillNext(long now) {
+        while (true) {
+            NanoTimer fired = null;
+            long tWait;
+            synchronized (lock) {
+                if (timers.isEmpty())
+                    tWait = Long.MAX_VALUE;
+                else {
+                    NanoTimer timer = timers.first();
+                    tWait = timer.t - now;
+                    if (tWait <= 0) {
+                        fired = timer;
+                        timers.remove(fired);
+                    }
+                }
+            }
+            if (fired != null)
+                fired.callback.run();
+            else
+                return tWait;
+        }
+    }
+
+    private final Thread timerThread = new Thread("sodium-nanosecond-timer") {
+        public void run() {
+            while (true) {
+                rescan = false;
+                long tWait = timeTillNext(System.nanoTime());
+                if (tWait > spinNanos)
+                    LockSupport.parkNanos(this, tWait - spinNanos);
+                else {
+                    // Spin until it's due, unless an earlier timer is set meanwhile.
+                    long due = System.nanoTime() + tWait;
+                    while (due - System.nanoTime() > 0 && !rescan)
+                        ;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param spinNanos How long before a timer is due to stop parking and spin, or 0
+     *    to never spin.
+     */
+    NanosecondsTimerSystemImpl(long spinNanos) {
+        if (spinNanos < 0)
+            throw new IllegalArgumentException("spinNanos can't be negative");
+        this.spinNanos = spinNanos;
+        timerThread.setDaemon(true);
+        timerThread.start();
+    }
+
+    public Timer setTimer(Long t, Runnable callback) {
+        synchronized (lock) {
+            NanoTimer timer = new NanoTimer(t, nextSeq++, callback);
+            timers.add(timer);
+            // Only wake the timer thread if it's waiting for something later.
+            if (timers.first() == timer) {
+                rescan = true;
+                LockSupport.unpark(timerThread);
+            }
+            return timer;
+        }
+    }
+
+    public void runTimersTo(Long now) {
+        timeTillNext(now);
+    }
+
+    public Long now() {
+        return System.nanoTime();
+    }
+}
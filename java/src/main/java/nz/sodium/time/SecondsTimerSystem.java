@@ -1,5 +1,7 @@
 package nz.sodium.time;
 
+import nz.sodium.TransactionDomain;
+
 /**
  * A timer system implementation where the clock is a floating point number of seconds
  * since program start.
@@ -8,5 +10,12 @@ public class SecondsTimerSystem extends TimerSystem<Double> {
     public SecondsTimerSystem() {
         super(new SecondsTimerSystemImpl());
     }
+
+    /**
+     * A timer system whose alarms fire in the specified domain.
+     */
+    public SecondsTimerSystem(TransactionDomain domain) {
+        super(new SecondsTimerSystemImpl(), domain);
+    }
 }
 
@@ -1,34 +1,67 @@
 package nz.sodium.time;
 
 import nz.sodium.*;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public class TimerSystem<T extends Comparable> {
     public TimerSystem(final TimerSystemImpl<T> impl) {
+        this(impl, TransactionDomain.current());
+    }
+
+    /**
+     * A variant of {@link TimerSystem(TimerSystemImpl)} whose cells and streams belong
+     * to the specified domain.
+     */
+    public TimerSystem(final TimerSystemImpl<T> impl, TransactionDomain domain) {
         this.impl = impl;
-        final CellSink<T> timeSnk = new CellSink<T>(impl.now());
+        this.domain = domain;
+        final CellSink<T> timeSnk = new CellSink<T>(domain, impl.now());
         time = timeSnk;
-        Transaction.onStart(new Runnable() {
+        domain.onStart(new Runnable() {
             public void run() {
                 T t = impl.now();
-                impl.runTimersTo(t);
-                while (true) {
-                    Event ev;
-                    // Pop all events earlier than t.
-                    synchronized (eventQueue) {
-                        ev = eventQueue.peekFirst();
-                        if (ev != null && ev.t.compareTo(t) <= 0)
-                            eventQueue.removeFirst();
-                        else
-                            ev = null;
-                    }
-                    if (ev != null) {
-                        timeSnk.send(ev.t);
-                        ev.sAlarm.send(ev.t);
-                    }
-                    else
-                        break;
+                // Alarms that fire from inside runTimersTo() don't need to open a
+                // transaction of their own, because we deliver them below.
+                draining = Thread.currentThread();
+                try {
+                    impl.runTimersTo(t);
+                }
+                finally {
+                    draining = null;
+                }
+                // Take the alarms that are due. They normally went off in time order,
+                // in which case the sort is a single pass.
+                final ArrayList<Event> due = new ArrayList<Event>();
+                synchronized (eventQueue) {
+                    Collections.sort(eventQueue);
+                    int n = 0;
+                    while (n < eventQueue.size() && compare(eventQueue.get(n).t, t) <= 0)
+                        n++;
+                    List<Event> head = eventQueue.subList(0, n);
+                    due.addAll(head);
+                    head.clear();
+                }
+                // Deliver them in groups with the same time. The clock moves to the
+                // alarm time in a transaction of its own, so that the alarms see it
+                // when they sample it, and then the alarms fire together.
+                int i = 0;
+                while (i < due.size()) {
+                    final T tAlarm = due.get(i).t;
+                    int j = i + 1;
+                    while (j < due.size() && compare(due.get(j).t, tAlarm) == 0)
+                        j++;
+                    final List<Event> group = due.subList(i, j);
+                    timeSnk.send(tAlarm);
+                    domain.runVoid(new Runnable() {
+                        public void run() {
+                            for (Event ev : group)
+                                ev.sAlarm.send(tAlarm);
+                        }
+                    });
+                    i = j;
                 }
                 timeSnk.send(t);
             }
@@ -36,20 +69,36 @@ public class TimerSystem<T extends Comparable> {
     }
 
     private final TimerSystemImpl<T> impl;
+    private final TransactionDomain domain;
     /**
      * A cell giving the current clock time.
      */
     public final Cell<T> time;
 
-    private class Event {
+    /**
+     * T is a raw Comparable, so this is the one place that compares its values.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable> int compare(T a, T b) {
+        return a.compareTo(b);
+    }
+
+    private class Event implements Comparable<Event> {
         Event(T t, StreamSink<T> sAlarm) {
             this.t = t;
             this.sAlarm = sAlarm;
         }
-        T t;
-        StreamSink<T> sAlarm;
+        final T t;
+        final StreamSink<T> sAlarm;
+        public int compareTo(Event o) {
+            return compare(t, o.t);
+        }
     };
-    private LinkedList<Event> eventQueue = new LinkedList<Event>();
+    // Alarms that have gone off but haven't been delivered yet, in the order they went
+    // off. Guarded by itself.
+    private final ArrayList<Event> eventQueue = new ArrayList<Event>();
+    // The thread that is running the onStart hook, if any.
+    private volatile Thread draining;
 
     private static class CurrentTimer {
         Optional<Timer> oTimer = Optional.empty();
@@ -59,7 +108,12 @@ public class TimerSystem<T extends Comparable> {
      * A timer that fires at the specified time.
      */
     public Stream<T> at(Cell<Optional<T>> tAlarm) {
-        final StreamSink<T> sAlarm = new StreamSink<T>();
+        // Stale alarms can go off at the same time as the current one, so combine them.
+        final StreamSink<T> sAlarm = new StreamSink<T>(domain, new Lambda2<T,T,T>() {
+            public T apply(T left, T right) {
+                return right;
+            }
+        });
         final CurrentTimer current = new CurrentTimer();
         Listener l = tAlarm.listen(new Handler<Optional<T>>() {
             public void run(final Optional<T> oAlarm) {
@@ -73,10 +127,12 @@ public class TimerSystem<T extends Comparable> {
                                     eventQueue.add(new Event(oAlarm.get(), sAlarm));
                                 }
                                 // Open and close a transaction to trigger queued
-                                // events to run.
-                                Transaction.runVoid(new Runnable() {
-                                    public void run() { }
-                                });
+                                // events to run, unless we're already in the middle
+                                // of running them.
+                                if (draining != Thread.currentThread())
+                                    domain.runVoid(new Runnable() {
+                                        public void run() { }
+                                    });
                             }
                         }))
                     : Optional.<Timer>empty();
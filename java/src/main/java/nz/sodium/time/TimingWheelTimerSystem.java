@@ -0,0 +1,35 @@
+package nz.sodium.time;
+
+import nz.sodium.TransactionDomain;
+
+/**
+ * A timer system using Java's {@link System#currentTimeMillis()} clock, like
+ * {@link MillisecondsTimerSystem}, that keeps its alarms in a hierarchical timing wheel.
+ * Setting and cancelling an alarm take constant time, however many are pending, at the
+ * cost of alarms firing up to one tick late.
+ */
+public class TimingWheelTimerSystem extends TimerSystem<Long> {
+    /**
+     * A timer system with a tick of 1 millisecond.
+     */
+    public TimingWheelTimerSystem() {
+        this(1);
+    }
+
+    /**
+     * A timer system with the specified tick.
+     * @param tickMillis The resolution of the wheel in milliseconds. Alarms fire on the
+     *    first tick at or after their time.
+     */
+    public TimingWheelTimerSystem(long tickMillis) {
+        super(new TimingWheelTimerSystemImpl(tickMillis));
+    }
+
+    /**
+     * A variant of {@link TimingWheelTimerSystem(long)} whose alarms fire in the
+     * specified domain.
+     */
+    public TimingWheelTimerSystem(TransactionDomain domain, long tickMillis) {
+        super(new TimingWheelTimerSystemImpl(tickMillis), domain);
+    }
+}
@@ -0,0 +1,279 @@
+package nz.sodium.time;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A millisecond timer system that keeps its timers in a hierarchical timing wheel, so
+ * that setting and cancelling a timer take constant time however many are pending.
+ * <P>
+ * Time is divided into ticks of a configurable number of milliseconds. Level 0 of the
+ * wheel has a slot for each of the next 64 ticks, level 1 a slot for each of the next
+ * 64 runs of 64 ticks, and so on. A timer goes into the lowest level that reaches its
+ * tick, and each time the current tick crosses into a higher level's slot, the timers
+ * in that slot are moved down to where they now belong. Each level has a bit mask of
+ * which of its slots are in use, so the wheel can skip over stretches with nothing in
+ * them without visiting every tick.
+ * <P>
+ * A timer fires on the first tick at or after its time, so it can be up to one tick
+ * late, but never early. Timers that fire together run in order of time, then of when
+ * they were set.
+ */
+class TimingWheelTimerSystemImpl implements TimerSystemImpl<Long> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = (64 + SLOT_BITS - 1) / SLOT_BITS;
+
+    private final class WheelTimer implements Timer {
+        WheelTimer(long t, long tick, long seq, Runnable callback) {
+            this.t = t;
+            this.tick = tick;
+            this.seq = seq;
+            this.callback = callback;
+        }
+        final long t;
+        final long tick;
+        final long seq;
+        final Runnable callback;
+        // Where the timer is: a level and slot, or DUE, or NOWHERE once it has
+        // fired or been cancelled.
+        int level = NOWHERE;
+        int slot;
+        WheelTimer prev;
+        WheelTimer next;
+
+        public void cancel() {
+            synchronized (lock) {
+                if (level != NOWHERE)
+                    remove(this);
+            }
+        }
+    }
+    private static final int NOWHERE = -1;
+    private static final int DUE = -2;
+
+    private static final Comparator<WheelTimer> FIRING_ORDER = new Comparator<WheelTimer>() {
+        public int compare(WheelTimer a, WheelTimer b) {
+            if (a.t != b.t) return a.t < b.t ? -1 : 1;
+            return a.seq < b.seq ? -1 : a.seq > b.seq ? 1 : 0;
+        }
+    };
+
+    private final long tickMillis;
+    private final Object lock = new Object();
+    private final WheelTimer[][] slots = new WheelTimer[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    // Timers whose tick has already passed, which fire next time the wheel advances.
+    private WheelTimer due;
+    // All ticks up to and including this one have been processed.
+    private long current;
+    private long nextSeq;
+    private int count;
+    // The tick the timer thread will wake up at, so we only wake it if a new timer is
+    // earlier.
+    private long wakeTick = Long.MAX_VALUE;
+
+    private final Thread timerThread = new Thread("sodium-timing-wheel") {
+        public void run() {
+            while (true) {
+                runTimersTo(System.currentTimeMillis());
+                synchronized (lock) {
+                    long next = nextTick();
+                    // Waiting for 0 means waiting until we're notified.
+                    long wait = next == Long.MAX_VALUE ? 0
+                        : Math.max(1, Math.min(next - current, 1L << 32) * tickMillis
+                            - (System.currentTimeMillis() - current * tickMillis));
+                    wakeTick = next;
+                    try {
+                        lock.wait(wait);
+                    }
+                    catch (InterruptedException e) {
+                    }
+                    wakeTick = Long.MAX_VALUE;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param tickMillis The resolution of the wheel in milliseconds.
+     */
+    TimingWheelTimerSystemImpl(long tickMillis) {
+        this(tickMillis, true);
+    }
+
+    /**
+     * @param startThread false to leave it to the caller to advance the wheel with
+     *        runTimersTo(), for testing.
+     */
+    TimingWheelTimerSystemImpl(long tickMillis, boolean startThread) {
+        if (tickMillis < 1)
+            throw new IllegalArgumentException("tickMillis must be at least 1");
+        this.tickMillis = tickMillis;
+        this.current = System.currentTimeMillis() / tickMillis;
+        if (startThread) {
+            timerThread.setDaemon(true);
+            timerThread.start();
+        }
+    }
+
+    public Timer setTimer(Long t, Runnable callback) {
+        // Round up, so the timer doesn't fire before its time.
+        long tick = t <= 0 ? 0 : (t + tickMillis - 1) / tickMillis;
+        synchronized (lock) {
+            WheelTimer timer = new WheelTimer(t, tick, nextSeq++, callback);
+            insert(timer);
+            count++;
+            if (tick < wakeTick)
+                lock.notify();
+            return timer;
+        }
+    }
+
+    public void runTimersTo(Long now) {
+        List<WheelTimer> fired = new ArrayList<WheelTimer>();
+        synchronized (lock) {
+            advance(now / tickMillis, fired);
+        }
+        if (fired.size() > 1)
+            Collections.sort(fired, FIRING_ORDER);
+        for (WheelTimer timer : fired)
+            timer.callback.run();
+    }
+
+    public Long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * The number of timers that are set and haven't fired or been cancelled.
+     */
+    int pending() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    private void insert(WheelTimer timer) {
+        long delta = timer.tick - current;
+        if (delta <= 0) {
+            timer.level = DUE;
+            timer.prev = null;
+            timer.next = due;
+            if (due != null)
+                due.prev = timer;
+            due = timer;
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(delta)) / SLOT_BITS;
+        int slot = (int)(timer.tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+        WheelTimer head = slots[level][slot];
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null)
+            head.prev = timer;
+        slots[level][slot] = timer;
+        occupied[level] |= 1L << slot;
+    }
+
+    private void remove(WheelTimer timer) {
+        if (timer.prev != null)
+            timer.prev.next = timer.next;
+        else if (timer.level == DUE)
+            due = timer.next;
+        else {
+            slots[timer.level][timer.slot] = timer.next;
+            if (timer.next == null)
+                occupied[timer.level] &= ~(1L << timer.slot);
+        }
+        if (timer.next != null)
+            timer.next.prev = timer.prev;
+        timer.level = NOWHERE;
+        timer.prev = timer.next = null;
+        count--;
+    }
+
+    /**
+     * Take all the timers out of a slot.
+     */
+    private WheelTimer takeSlot(int level, int slot) {
+        WheelTimer head = slots[level][slot];
+        slots[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        return head;
+    }
+
+    /**
+     * The next tick after the current one at which a slot has to be fired or moved
+     * down, or Long.MAX_VALUE if there are no timers.
+     */
+    private long nextTick() {
+        if (due != null)
+            return current;
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits == 0)
+                continue;
+            int shift = level * SLOT_BITS;
+            long pos = current >>> shift;
+            int r = (int)pos & (SLOTS - 1);
+            long later = r == SLOTS - 1 ? 0 : bits & (-1L << (r + 1));
+            long rotation = pos & ~(long)(SLOTS - 1);
+            long s = later != 0
+                ? rotation + Long.numberOfTrailingZeros(later)
+                : rotation + SLOTS + Long.numberOfTrailingZeros(bits);
+            if (s <= Long.MAX_VALUE >>> shift)
+                next = Math.min(next, s << shift);
+        }
+        return next;
+    }
+
+    private void advance(long target, List<WheelTimer> fired) {
+        fireAll(due, fired);
+        due = null;
+        while (current < target) {
+            if (count == 0) {
+                current = target;
+                break;
+            }
+            long next = nextTick();
+            if (next > target) {
+                current = target;
+                break;
+            }
+            current = next;
+            // Move timers down from higher levels whose slot we've just entered,
+            // highest first, since they may land in a lower slot we've also entered.
+            int top = 0;
+            while (top + 1 < LEVELS && (current & ((1L << ((top + 1) * SLOT_BITS)) - 1)) == 0)
+                top++;
+            for (int level = top; level >= 1; level--) {
+                WheelTimer t = takeSlot(level, (int)(current >>> (level * SLOT_BITS)) & (SLOTS - 1));
+                while (t != null) {
+                    WheelTimer n = t.next;
+                    insert(t);
+                    t = n;
+                }
+            }
+            fireAll(takeSlot(0, (int)current & (SLOTS - 1)), fired);
+            fireAll(due, fired);
+            due = null;
+        }
+    }
+
+    private void fireAll(WheelTimer t, List<WheelTimer> fired) {
+        while (t != null) {
+            WheelTimer n = t.next;
+            t.level = NOWHERE;
+            t.prev = t.next = null;
+            count--;
+            fired.add(t);
+            t = n;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package nz.sodium.time;
+
+import java.util.Optional;
+
+import nz.sodium.TransactionDomain;
+
+/**
+ * A timer system with a virtual clock that only moves when {@link #advanceTo(Comparable)}
+ * or {@link #advanceToNext()} is called. The clock jumps straight from one alarm to the
+ * next, so a simulated day takes as long as the logic that runs in it, and the same
+ * inputs always give the same alarms at the same times.
+ * <P>
+ * The clock can't be advanced from inside a transaction, because alarms are delivered
+ * in transactions of their own.
+ */
+public class VirtualTimerSystem<T extends Comparable<T>> extends TimerSystem<T> {
+    /**
+     * @param t0 The time the clock starts at.
+     */
+    public VirtualTimerSystem(T t0) {
+        this(new VirtualTimerSystemImpl<T>(t0), TransactionDomain.current());
+    }
+
+    /**
+     * A variant of {@link VirtualTimerSystem(Comparable)} whose alarms fire in the
+     * specified domain.
+     */
+    public VirtualTimerSystem(T t0, TransactionDomain domain) {
+        this(new VirtualTimerSystemImpl<T>(t0), domain);
+    }
+
+    private VirtualTimerSystem(VirtualTimerSystemImpl<T> impl, TransactionDomain domain) {
+        super(impl, domain);
+        this.impl = impl;
+        this.domain = domain;
+    }
+
+    private final VirtualTimerSystemImpl<T> impl;
+    private final TransactionDomain domain;
+
+    /**
+     * Move the clock forward to the specified time, stopping at the time of each alarm
+     * on the way, including alarms that are set by the ones before them. The time cell
+     * ends up at t.
+     */
+    public void advanceTo(T t) {
+        while (true) {
+            Optional<T> next = impl.nextTimerTime();
+            if (!next.isPresent() || next.get().compareTo(t) > 0)
+                break;
+            step(next.get());
+        }
+        step(t);
+    }
+
+    /**
+     * Move the clock forward to the time of the next alarm and deliver it, along with
+     * any others due at the same time.
+     * @return The time the clock moved to, or nothing if no alarms are set, in which
+     *    case the clock doesn't move.
+     */
+    public Optional<T> advanceToNext() {
+        Optional<T> next = impl.nextTimerTime();
+        if (next.isPresent())
+            step(next.get());
+        return next;
+    }
+
+    private void step(T t) {
+        if (domain.inTransaction())
+            throw new RuntimeException("A virtual clock can't be advanced inside a transaction");
+        impl.setNow(t);
+        // The timer system delivers due alarms when a transaction starts.
+        domain.runVoid(new Runnable() {
+            public void run() { }
+        });
+    }
+}
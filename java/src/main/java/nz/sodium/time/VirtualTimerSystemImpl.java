@@ -0,0 +1,93 @@
+package nz.sodium.time;
+
+import java.util.Optional;
+import java.util.TreeSet;
+
+/**
+ * A timer system implementation whose clock only moves when the application moves it,
+ * so simulations and soak tests run as fast as the CPU allows and give the same results
+ * every time. {@link VirtualTimerSystem} moves the clock from one timer to the next and
+ * delivers the alarms.
+ */
+public class VirtualTimerSystemImpl<T extends Comparable<T>> implements TimerSystemImpl<T> {
+    private class VirtualTimer implements Timer, Comparable<VirtualTimer> {
+        private VirtualTimer(T t, long seq, Runnable callback) {
+            this.t = t;
+            this.seq = seq;
+            this.callback = callback;
+        }
+        private final T t;
+        private final long seq;
+        private final Runnable callback;
+        public void cancel() {
+            synchronized (lock) {
+                timers.remove(this);
+            }
+        }
+        @Override
+        public int compareTo(VirtualTimer o) {
+            int c = t.compareTo(o.t);
+            if (c != 0) return c;
+            if (seq < o.seq) return -1;
+            if (seq > o.seq) return 1;
+            return 0;
+        }
+    }
+    private final Object lock = new Object();
+    private long nextSeq = 0;
+    private final TreeSet<VirtualTimer> timers = new TreeSet<VirtualTimer>();
+    private T now;
+
+    /**
+     * @param t0 The time the clock starts at.
+     */
+    public VirtualTimerSystemImpl(T t0) {
+        this.now = t0;
+    }
+
+    public Timer setTimer(T t, Runnable callback) {
+        synchronized (lock) {
+            VirtualTimer timer = new VirtualTimer(t, nextSeq++, callback);
+            timers.add(timer);
+            return timer;
+        }
+    }
+
+    public void runTimersTo(T t) {
+        while (true) {
+            VirtualTimer fired;
+            synchronized (lock) {
+                if (timers.isEmpty() || timers.first().t.compareTo(t) > 0)
+                    return;
+                fired = timers.pollFirst();
+            }
+            fired.callback.run();
+        }
+    }
+
+    public T now() {
+        synchronized (lock) {
+            return now;
+        }
+    }
+
+    /**
+     * Move the clock to the specified time. The clock never goes backwards, so a time
+     * earlier than the current one is ignored. This doesn't run any timers.
+     */
+    public void setNow(T t) {
+        synchronized (lock) {
+            if (t.compareTo(now) > 0)
+                now = t;
+        }
+    }
+
+    /**
+     * The time of the earliest timer that hasn't fired or been cancelled, if any.
+     */
+    public Optional<T> nextTimerTime() {
+        synchronized (lock) {
+            return timers.isEmpty() ? Optional.<T>empty() : Optional.of(timers.first().t);
+        }
+    }
+}
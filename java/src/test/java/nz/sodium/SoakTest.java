@@ -0,0 +1,64 @@
+package nz.sodium;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+
+/**
+ * Churns switchC and switchS networks that create and drop inner cells and streams
+ * on every event, like MemoryTest1 and MemoryTest4, and reports the heap that is
+ * still in use after a full GC, how many links from the source stream are left, and
+ * the time spent in GC.
+ */
+public class SoakTest
+{
+    static final int EVENTS = 500000;
+    static final int REPORT_EVERY = 100000;
+
+    static long usedAfterGC() throws InterruptedException
+    {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            // Give the cleanup of what was collected time to run.
+            Thread.sleep(200);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static long gcMillis()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += gc.getCollectionTime();
+        return total;
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        StreamSink<Integer> et = new StreamSink<Integer>();
+        Cell<Integer> t = et.hold(0);
+        Stream<Integer> changeTens = Stream.filterOptional(et.snapshot(t, (neu, old) ->
+            neu / 10 == old / 10 ? Optional.empty() : Optional.of(neu / 10)));
+        Cell<Cell<Tuple2<Integer,Integer>>> oout =
+            changeTens.map(tens -> t.map(tt -> new Tuple2<Integer,Integer>(tens, tt))).
+            hold(t.map(tt -> new Tuple2<Integer,Integer>(0, tt)));
+        Listener l1 = Cell.switchC(oout).listen(tu -> {});
+        Cell<Stream<Integer>> osout =
+            changeTens.map(tens -> et.map(x -> x + tens)).hold(et);
+        Listener l2 = Cell.switchS(osout).listen(x -> {});
+
+        long gc0 = gcMillis();
+        long t0 = System.nanoTime();
+        for (int i = 1; i <= EVENTS; i++) {
+            et.send(i);
+            if (i % REPORT_EVERY == 0)
+                System.out.printf("events %,10d   heap in use after GC %,8d kB   links from source %,6d%n",
+                    i, usedAfterGC() / 1024, et.node.listeners.length);
+        }
+        long t1 = System.nanoTime();
+        System.out.printf("GC time %,d ms of %,d ms%n", gcMillis() - gc0, (t1 - t0) / 1000000);
+        l1.unlisten();
+        l2.unlisten();
+    }
+}
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.TestCase;
 
@@ -153,6 +155,124 @@ public class TestCell extends TestCase {
         assertEquals(Arrays.asList(10), out);
     }
 
+    public void testLift6CallsFunctionOncePerTransaction() {
+        CellSink<Integer> a = new CellSink<Integer>(1);
+        CellSink<Integer> f = new CellSink<Integer>(100);
+        int[] calls = new int[1];
+        Cell<Integer> sum = a.lift(a.map(x -> x * 2), a.map(x -> x * 3), a.map(x -> x * 4),
+                a.map(x -> x * 5), f, (x1, x2, x3, x4, x5, x6) -> {
+            calls[0]++;
+            return x1 + x2 + x3 + x4 + x5 + x6;
+        });
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = sum.listen(x -> { out.add(x); });
+        a.send(2);
+        f.send(200);
+        Transaction.runVoid(() -> {
+            a.send(3);
+            f.send(300);
+        });
+        l.unlisten();
+        assertEquals(Arrays.asList(115, 130, 230, 345), out);
+        assertEquals(4, calls[0]);
+    }
+
+    public void testLiftAll() {
+        List<CellSink<String>> cs = new ArrayList<CellSink<String>>();
+        for (int i = 0; i < 16; i++)
+            cs.add(new CellSink<String>(Integer.toHexString(i)));
+        int[] calls = new int[1];
+        Cell<String> all = Cell.liftAll(cs, "", (x, y) -> {
+            calls[0]++;
+            return x + y;
+        });
+        List<String> out = new ArrayList<String>();
+        Listener l = all.listen(x -> { out.add(x); });
+        calls[0] = 0;
+        cs.get(3).send("x");
+        Transaction.runVoid(() -> {
+            cs.get(0).send("y");
+            cs.get(1).send("z");
+        });
+        l.unlisten();
+        assertEquals(Arrays.asList("0123456789abcdef", "012x456789abcdef", "yz2x456789abcdef"), out);
+        // One path of 4 for the first, and two paths that share all but their leaves' parent.
+        assertEquals(4 + 4, calls[0]);
+        assertEquals("", Cell.liftAll(new ArrayList<Cell<String>>(), "", (x, y) -> x + y).sample());
+    }
+
+    public void testLiftAllMembership() {
+        CellSink<String> a = new CellSink<String>("a");
+        CellSink<String> b = new CellSink<String>("b");
+        CellSink<String> c = new CellSink<String>("c");
+        CellSink<List<Cell<String>>> members = new CellSink<List<Cell<String>>>(Arrays.asList(a, b));
+        Cell<String> all = Cell.liftAll(members, "-", (x, y) -> x + y);
+        List<String> out = new ArrayList<String>();
+        Listener l = all.listen(x -> { out.add(x); });
+        members.send(Arrays.asList(a, b, c));
+        members.send(Arrays.asList(b, c));
+        a.send("A");
+        c.send("C");
+        members.send(Arrays.asList(c, a, b, a));
+        Transaction.runVoid(() -> {
+            b.send("B");
+            members.send(Arrays.asList(a, b, a));
+        });
+        members.send(new ArrayList<Cell<String>>());
+        b.send("b");
+        l.unlisten();
+        assertEquals(Arrays.asList("ab", "abc", "bc", "bC", "CAbA", "ABA", "-"), out);
+
+        // A new member that's ranked after the output and updates later in the same
+        // transaction is included in the transaction's one update.
+        Cell<String> deep = a;
+        Cell<String> none = new Cell<String>("");
+        for (int i = 0; i < 20; i++)
+            deep = deep.lift(none, (x, y) -> x + y);
+        Cell<String> deep_ = deep;
+        List<String> out2 = new ArrayList<String>();
+        Listener l2 = Operational.updates(all).listen(x -> { out2.add(x); });
+        Transaction.runVoid(() -> {
+            members.send(Arrays.asList(b, deep_));
+            a.send("5");
+        });
+        l2.unlisten();
+        assertEquals(Arrays.asList("b5"), out2);
+    }
+
+    public void testCalm() {
+        CellSink<Integer> c = new CellSink<Integer>(1);
+        int[] calls = new int[1];
+        Cell<Integer> calm = c.calm().map(x -> {
+            calls[0]++;
+            return x * 10;
+        });
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = calm.listen(x -> { out.add(x); });
+        calls[0] = 0;
+        c.send(1);
+        c.send(2);
+        c.send(2);
+        c.send(3);
+        c.send(1);
+        l.unlisten();
+        assertEquals(Arrays.asList(10, 20, 30, 10), out);
+        assertEquals(3, calls[0]);
+    }
+
+    public void testCalmUpdatedInSameTransaction() {
+        CellSink<Integer> c = new CellSink<Integer>(1);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = Transaction.run(() -> {
+            c.send(1);
+            return c.calm().listen(x -> { out.add(x); });
+        });
+        c.send(1);
+        c.send(4);
+        l.unlisten();
+        assertEquals(Arrays.asList(1, 4), out);
+    }
+
     public void testHoldIsDelayed() {
         StreamSink<Integer> e = new StreamSink<Integer>();
         Cell<Integer> h = e.hold(0);
@@ -205,6 +325,22 @@ public class TestCell extends TestCase {
         assertEquals(Arrays.asList('A', 'B', 'c', 'd', 'E', 'F', 'f', 'F', 'g', 'H', 'I'), out);
     }
 
+    public void testSwitchCDoesNotAccumulateListeners() {
+        StreamSink<Integer> s = new StreamSink<Integer>();
+        Cell<Integer> t = s.hold(0);
+        Cell<Integer> tDeep = t.map(x -> -x);
+        Cell<Cell<Integer>> oout = s.map(x -> x % 2 == 0 ? t : tDeep).hold(t);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = Cell.switchC(oout).listen(x -> { out.add(x); });
+        int listeners = s.node.listeners.length;
+        for (int i = 1; i <= 100; i++)
+            s.send(i);
+        assertEquals(listeners, s.node.listeners.length);
+        l.unlisten();
+        assertEquals(Arrays.asList(0, -1, 2, -3), out.subList(0, 4));
+        assertEquals(101, out.size());
+    }
+
     static class SE {
         SE(Character a, Character b, Optional<Stream<Character>> sw) {
             this.a = a;
@@ -381,5 +517,158 @@ public class TestCell extends TestCase {
         l.unlisten();
         assertEquals(Arrays.asList("A2", "A4"), out);
     }
-}
 
+    public void testSampleDoesntWaitForTransaction() throws InterruptedException {
+        CellSink<Integer> c = new CellSink<Integer>(1);
+        Cell<Integer> m = c.map(x -> x * 10);
+        assertEquals(Integer.valueOf(10), m.sample());
+        c.send(2);
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread t = new Thread(() -> Transaction.runVoid(() -> {
+            c.send(3);
+            inside.countDown();
+            try { release.await(); } catch (InterruptedException e) {}
+        }));
+        t.start();
+        inside.await();
+        // We see the last committed values while the other transaction holds the lock.
+        assertEquals(Integer.valueOf(2), c.sample());
+        assertEquals(Integer.valueOf(20), m.sample());
+        release.countDown();
+        t.join();
+        assertEquals(Integer.valueOf(3), c.sample());
+        assertEquals(Integer.valueOf(30), m.sample());
+        // Inside a transaction, updates aren't visible until it's over.
+        Transaction.runVoid(() -> {
+            c.send(4);
+            assertEquals(Integer.valueOf(3), c.sample());
+        });
+        assertEquals(Integer.valueOf(4), c.sample());
+    }
+
+    public void testLazyInitialValueIsSampledInTransaction() throws InterruptedException {
+        CellSink<Integer> a = new CellSink<Integer>(1);
+        List<Boolean> inTrans = new ArrayList<Boolean>();
+        Cell<Integer> b = a.map(x -> {
+            inTrans.add(TransactionDomain.active() != null);
+            return -x;
+        });
+        Cell<Integer> c = a.map(x -> x * 2);
+        assertEquals((Integer)(-1), b.sample());
+        assertEquals(Arrays.asList(1, 2), Transaction.snapshot(a, c));
+        assertEquals(Arrays.asList(true), inTrans);
+        // Once it's been worked out, sampling it doesn't wait for a transaction.
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread t = new Thread(() -> Transaction.runVoid(() -> {
+            a.send(2);
+            inside.countDown();
+            try { release.await(); } catch (InterruptedException e) {}
+        }));
+        t.start();
+        inside.await();
+        assertEquals((Integer)(-1), b.sample());
+        assertEquals(Arrays.asList(1, 2), Transaction.snapshot(a, c));
+        release.countDown();
+        t.join();
+        assertEquals((Integer)(-2), b.sample());
+        assertEquals(Arrays.asList(true, true), inTrans);
+    }
+
+    public void testConsistentSnapshot() throws InterruptedException {
+        CellSink<Integer> a = new CellSink<Integer>(1);
+        Cell<Integer> b = a.map(x -> -x);
+        CellSink<String> c = new CellSink<String>("x");
+        assertEquals(Arrays.asList(1, -1, "x"), Transaction.snapshot(a, b, c));
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread t = new Thread(() -> Transaction.runVoid(() -> {
+            a.send(2);
+            c.send("y");
+            inside.countDown();
+            try { release.await(); } catch (InterruptedException e) {}
+        }));
+        t.start();
+        inside.await();
+        assertEquals(Arrays.asList(1, -1, "x"), Transaction.snapshot(a, b, c));
+        release.countDown();
+        t.join();
+        assertEquals(Arrays.asList(2, -2, "y"), Transaction.snapshot(a, b, c));
+        Transaction.runVoid(() -> {
+            a.send(3);
+            assertEquals(Arrays.asList(2, -2, "y"), Transaction.snapshot(a, b, c));
+        });
+    }
+
+    public void testSnapshotIsConsistent() throws InterruptedException {
+        CellSink<Integer> a = new CellSink<Integer>(0);
+        Cell<Integer> b = a.map(x -> -x);
+        Cell<Integer> c = Operational.updates(a).map(x -> x * 2).hold(0);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; !stop.get(); i++)
+                a.send(i);
+        });
+        writer.start();
+        try {
+            int last = 0;
+            for (int i = 0; i < 100000; i++) {
+                List<Object> s = Transaction.snapshot(a, b, c);
+                int x = (Integer)s.get(0);
+                assertEquals(-x, s.get(1));
+                assertEquals(2 * x, s.get(2));
+                assertTrue(x >= last);
+                last = x;
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    public void testSnapshotOfManyCellsIsntStarved() throws InterruptedException {
+        CellSink<Integer> hot = new CellSink<Integer>(0);
+        // The hot cell is read last, after many others, so a busy writer will have
+        // updated it more times than it keeps versions for while we read the rest.
+        Cell<?>[] cells = new Cell<?>[200000];
+        CellSink<Integer> cold = new CellSink<Integer>(0);
+        cells[0] = hot.map(x -> -x);
+        for (int i = 1; i < cells.length - 1; i++)
+            cells[i] = cold;
+        cells[cells.length - 1] = hot;
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; !stop.get(); i++)
+                hot.send(i);
+        });
+        AtomicBoolean consistent = new AtomicBoolean(true);
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                List<Object> s = Transaction.snapshot(cells);
+                if ((Integer)s.get(0) != -(Integer)s.get(cells.length - 1))
+                    consistent.set(false);
+            }
+        });
+        writer.start();
+        try {
+            reader.start();
+            reader.join(20000);
+            assertFalse("snapshot was starved", reader.isAlive());
+            assertTrue(consistent.get());
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    public void testSnapshotAcrossDomains() {
+        CellSink<Integer> a = new CellSink<Integer>(new TransactionDomain(), 0);
+        CellSink<Integer> b = new CellSink<Integer>(new TransactionDomain(), 0);
+        try {
+            Transaction.snapshot(a, b);
+            fail("should have thrown");
+        } catch (RuntimeException e) {
+        }
+    }
+}
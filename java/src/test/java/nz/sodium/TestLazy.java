@@ -0,0 +1,72 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestLazy extends TestCase {
+    public void testMapChainComputedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        Lazy<Integer> l = new Lazy<Integer>(() -> { calls.incrementAndGet(); return 0; });
+        for (int i = 0; i < 20; i++)
+            l = l.map(x -> { calls.incrementAndGet(); return x + 1; });
+        Lazy<Integer> sum = l.lift(l, (a, b) -> { calls.incrementAndGet(); return a + b; });
+        assertEquals(Integer.valueOf(40), sum.get());
+        assertEquals(Integer.valueOf(40), sum.get());
+        assertEquals(Integer.valueOf(20), l.get());
+        assertEquals(22, calls.get());
+    }
+
+    public void testCellMapFunctionRunsOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        CellSink<Integer> c = new CellSink<Integer>(1);
+        Lazy<Integer> l = c.sampleLazy().map(x -> { calls.incrementAndGet(); return x * 10; });
+        Cell<Integer> m = c.map(x -> { calls.incrementAndGet(); return x * 10; });
+        assertEquals(Integer.valueOf(10), m.sample());
+        assertEquals(Integer.valueOf(10), m.sample());
+        assertEquals(Integer.valueOf(10), l.get());
+        assertEquals(Integer.valueOf(10), l.get());
+        assertEquals(2, calls.get());
+    }
+
+    public void testNotRememberedBeforeAvailable() {
+        CellSink<Integer> c = new CellSink<Integer>(1);
+        Lazy<Integer> l = Transaction.run(() -> {
+            c.send(2);
+            Lazy<Integer> l_ = c.sampleLazy().map(x -> x * 10);
+            // Too early to know the final value.
+            assertEquals(Integer.valueOf(10), l_.get());
+            return l_;
+        });
+        assertEquals(Integer.valueOf(20), l.get());
+    }
+
+    public void testConcurrentGet() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        Lazy<Integer> l = new Lazy<Integer>(() -> {
+            calls.incrementAndGet();
+            try { Thread.sleep(50); } catch (InterruptedException e) {}
+            return 7;
+        }).map(x -> x + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        AtomicInteger wrong = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) {}
+                if (l.get() != 8)
+                    wrong.incrementAndGet();
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(1, calls.get());
+        assertEquals(0, wrong.get());
+    }
+}
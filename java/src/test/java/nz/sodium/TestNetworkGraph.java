@@ -0,0 +1,76 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestNetworkGraph extends TestCase {
+    public void testWalkDownstream() {
+        StreamSink<Integer> s = new StreamSink<Integer>();
+        Stream<Integer> m = s.map(x -> x + 1);
+        Stream<Integer> f = m.filter(x -> x > 0);
+        Cell<Integer> c = f.hold(0);
+        Listener l = m.listen(x -> {}).append(c.listen(x -> {}));
+        NetworkGraph g = new NetworkGraph().add(s);
+        l.unlisten();
+        NetworkGraph.NodeInfo sInfo = g.nodes().get(0);
+        assertEquals("StreamSink", sInfo.type());
+        assertEquals(1, sInfo.fanOut());
+        NetworkGraph.NodeInfo mInfo = sInfo.links().get(0).to;
+        // f, and the handler given to listen()
+        assertEquals(2, mInfo.fanOut());
+        assertTrue(mInfo.rank > sInfo.rank);
+        assertEquals(0, g.deadLinkCount());
+        int total = 0;
+        for (int n : g.rankDistribution().values())
+            total += n;
+        assertEquals(g.nodeCount(), total);
+        total = 0;
+        for (int n : g.fanOutDistribution().values())
+            total += n;
+        assertEquals(g.nodeCount(), total);
+        for (NetworkGraph.NodeInfo n : g.nodes())
+            for (NetworkGraph.Link link : n.links())
+                if (link.to != null)
+                    assertTrue(link.to.rank > n.rank);
+    }
+
+    public void testKeepsAlive() {
+        StreamSink<Integer> s1 = new StreamSink<Integer>();
+        StreamSink<Integer> s2 = new StreamSink<Integer>();
+        Stream<Integer> merged = s1.map(x -> x * 2).orElse(s2);
+        NetworkGraph g = new NetworkGraph().add(merged);
+        // Walking up from merged along what each stream keeps alive finds both sinks.
+        Set<NetworkGraph.NodeInfo> seen = new HashSet<NetworkGraph.NodeInfo>();
+        List<NetworkGraph.NodeInfo> toVisit = new ArrayList<NetworkGraph.NodeInfo>();
+        toVisit.add(g.nodes().get(0));
+        int sinks = 0;
+        while (!toVisit.isEmpty()) {
+            NetworkGraph.NodeInfo n = toVisit.remove(toVisit.size() - 1);
+            if (seen.add(n)) {
+                if ("StreamSink".equals(n.type()))
+                    sinks++;
+                toVisit.addAll(n.keepsAlive());
+            }
+        }
+        assertEquals(2, sinks);
+    }
+
+    public void testExport() {
+        StreamSink<Integer> s = new StreamSink<Integer>();
+        Listener l = s.map(x -> x + 1).listen(x -> {});
+        NetworkGraph g = new NetworkGraph().add(s);
+        l.unlisten();
+        String dot = g.toDot();
+        assertTrue(dot, dot.startsWith("digraph sodium {\n"));
+        assertTrue(dot, dot.contains("n0 [label=\"StreamSink\\nrank 0\"];"));
+        assertTrue(dot, dot.contains("n0 -> n1"));
+        assertTrue(dot, dot.contains("n1 -> l0"));
+        String json = g.toJson();
+        assertTrue(json, json.startsWith("{\"nodes\":[{\"id\":0,\"rank\":0,\"type\":\"StreamSink\",\"fanOut\":1,\"deadLinks\":0,\"links\":[{\"to\":1,"));
+        assertTrue(json, json.endsWith("\"keepsAlive\":[]}]}"));
+    }
+}
@@ -0,0 +1,72 @@
+package nz.sodium;
+
+import junit.framework.TestCase;
+
+public class TestNode extends TestCase {
+    private static void link(Node from, Node to) {
+        from.linkTo(null, to, new Node.Target[1]);
+    }
+
+    public void testLinkRaisesDownstream() {
+        Node a = new Node(0), b = new Node(0), c = new Node(0);
+        link(b, c);
+        link(a, b);
+        assertTrue(a.rank() < b.rank());
+        assertTrue(b.rank() < c.rank());
+    }
+
+    public void testLinkInOrderChangesNothing() {
+        Node a = new Node(0), b = new Node(5);
+        Node.Target[] t = new Node.Target[1];
+        assertFalse(a.linkTo(null, b, t));
+        assertEquals(5, b.rank());
+    }
+
+    public void testDiamond() {
+        // x has listeners y and z, and z also feeds y, so y must end up above z
+        // whichever path reaches it first.
+        Node x = new Node(0), y = new Node(0), z = new Node(0);
+        link(z, y);
+        link(x, y);
+        link(x, z);
+        link(new Node(5), x);
+        assertTrue(x.rank() < z.rank());
+        assertTrue(z.rank() < y.rank());
+    }
+
+    public void testCycleTerminates() {
+        Node a = new Node(0), b = new Node(0);
+        link(a, b);
+        link(b, a);
+        link(new Node(10), a);
+        assertTrue(a.rank() > 10);
+    }
+
+    public void testLadderIsReRankedOnce() {
+        // Two rails with rungs crossing between them at every step, so the number of
+        // paths from the top to the bottom doubles with each step.
+        int depth = 40;
+        Node[] xs = new Node[depth], ys = new Node[depth];
+        for (int i = 0; i < depth; i++) {
+            xs[i] = new Node(0);
+            ys[i] = new Node(0);
+        }
+        for (int i = depth - 2; i >= 0; i--) {
+            link(xs[i], xs[i + 1]);
+            link(xs[i], ys[i + 1]);
+            link(ys[i], xs[i + 1]);
+            link(ys[i], ys[i + 1]);
+        }
+        link(new Node(1000), xs[0]);
+        assertTrue(Node.lastRaiseVisits() <= 2 * depth);
+        for (int i = 0; i < depth - 1; i++) {
+            assertTrue(xs[i].rank() < xs[i + 1].rank());
+            assertTrue(xs[i].rank() < ys[i + 1].rank());
+            assertTrue(ys[i].rank() < xs[i + 1].rank());
+        }
+        link(new Node(2000), ys[0]);
+        assertTrue(Node.lastRaiseVisits() <= 2 * depth);
+        for (int i = 0; i < depth - 1; i++)
+            assertTrue(ys[i].rank() < xs[i + 1].rank());
+    }
+}
@@ -0,0 +1,156 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestPrimitives extends TestCase {
+    @Override
+    protected void tearDown() throws Exception {
+        System.gc();
+        Thread.sleep(100);
+    }
+
+    public void testMapFilter() {
+        IntStreamSink s = new IntStreamSink();
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = s.map(x -> x * 3).filter(x -> x % 2 == 0).listen(x -> { out.add(x); });
+        s.send(1);
+        s.send(2);
+        s.send(4);
+        l.unlisten();
+        assertEquals(Arrays.asList(6, 12), out);
+    }
+
+    public void testSendTwice() {
+        IntStreamSink s = new IntStreamSink();
+        try {
+            Transaction.runVoid(() -> {
+                s.send(1);
+                s.send(2);
+            });
+            fail("should have thrown");
+        } catch (RuntimeException e) {
+        }
+        IntStreamSink t = new IntStreamSink((x, y) -> x + y);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = t.listen(x -> { out.add(x); });
+        Transaction.runVoid(() -> {
+            t.send(1);
+            t.send(2);
+        });
+        l.unlisten();
+        assertEquals(Arrays.asList(3), out);
+    }
+
+    public void testManyFiringsInOneTransaction() {
+        TransactionDomain d = new TransactionDomain();
+        IntStream s = new IntStream(d);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = s.map(x -> x + 1).listen(x -> { out.add(x); });
+        d.run(trans -> {
+            s.send(trans, 10);
+            s.send(trans, 20);
+            s.send(trans, 30);
+        });
+        l.unlisten();
+        assertEquals(Arrays.asList(11, 21, 31), out);
+    }
+
+    public void testHoldSnapshot() {
+        IntStreamSink s = new IntStreamSink();
+        IntCell c = s.hold(0);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = s.snapshot(c, (a, b) -> a * 10 + b).listen(x -> { out.add(x); });
+        s.send(1);
+        s.send(2);
+        l.unlisten();
+        assertEquals(Arrays.asList(10, 21), out);
+        assertEquals(2, c.sample());
+    }
+
+    public void testSnapshotAcrossDomainsFails() {
+        IntStreamSink s = new IntStreamSink(new TransactionDomain());
+        IntCellSink c = new IntCellSink(new TransactionDomain(), 1);
+        try {
+            s.snapshot(c);
+            fail("snapshot across domains should fail");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    public void testAccum() {
+        IntStreamSink s = new IntStreamSink();
+        IntCell sum = s.accum(100, (a, total) -> a + total);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = sum.listen(x -> { out.add(x); });
+        s.send(5);
+        s.send(7);
+        l.unlisten();
+        assertEquals(Arrays.asList(100, 105, 112), out);
+    }
+
+    public void testCellListenSeesUpdateInSameTransaction() {
+        IntCellSink c = new IntCellSink(1);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = Transaction.run(() -> {
+            c.send(2);
+            return c.listen(x -> { out.add(x); });
+        });
+        c.send(3);
+        l.unlisten();
+        assertEquals(Arrays.asList(2, 3), out);
+    }
+
+    public void testLift() {
+        IntCellSink a = new IntCellSink(1);
+        IntCellSink b = new IntCellSink(10);
+        int[] calls = new int[1];
+        IntCell sum = a.map(x -> x * 2).lift(b, (x, y) -> {
+            calls[0]++;
+            return x + y;
+        });
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = sum.listen(x -> { out.add(x); });
+        a.send(2);
+        Transaction.runVoid(() -> {
+            a.send(3);
+            b.send(20);
+        });
+        l.unlisten();
+        assertEquals(Arrays.asList(12, 14, 26), out);
+        assertEquals(3, calls[0]);
+    }
+
+    public void testBridges() {
+        StreamSink<String> s = new StreamSink<String>();
+        List<String> out = new ArrayList<String>();
+        Listener l = s.mapToInt(String::length).map(x -> x + 1).boxed()
+            .listen(x -> { out.add("#" + x); });
+        Cell<String> c = s.mapToLong(String::length).hold(0L).mapToObj(x -> "len " + x);
+        s.send("abc");
+        l.unlisten();
+        assertEquals(Arrays.asList("#4"), out);
+        assertEquals("len 3", c.sample());
+    }
+
+    public void testLongAndDouble() {
+        LongStreamSink s = new LongStreamSink();
+        LongCell total = s.accum(0L, (a, t) -> a + t);
+        s.send(Long.MAX_VALUE / 2);
+        s.send(4L);
+        assertEquals(Long.MAX_VALUE / 2 + 4, total.sample());
+
+        DoubleStreamSink d = new DoubleStreamSink();
+        DoubleCellSink x = new DoubleCellSink(0.5);
+        DoubleCell scaled = x.lift(d.hold(1.0), (a, b) -> a * b);
+        List<Double> out = new ArrayList<Double>();
+        Listener l = scaled.listen(v -> { out.add(v); });
+        d.send(3.0);
+        x.send(0.25);
+        l.unlisten();
+        assertEquals(Arrays.asList(0.5, 1.5, 0.75), out);
+    }
+}
@@ -0,0 +1,77 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestPrioritizedQueue extends TestCase {
+    private static Handler<Transaction> record(final List<String> out, final String name) {
+        return new Handler<Transaction>() {
+            public void run(Transaction trans) {
+                out.add(name);
+            }
+        };
+    }
+
+    private static List<String> drain(PrioritizedQueue q, List<String> out) {
+        while (!q.isEmpty())
+            q.runNext(null);
+        return out;
+    }
+
+    private static void checkOrder(PrioritizedQueue q) {
+        List<String> out = new ArrayList<String>();
+        Node n1 = new Node(1), n2 = new Node(2), big = new Node(1000000);
+        q.add(Node.NULL, record(out, "null"));
+        q.add(big, record(out, "big"));
+        q.add(n2, record(out, "2a"));
+        q.add(n1, record(out, "1"));
+        q.add(n2, record(out, "2b"));
+        assertEquals(Arrays.asList("1", "2a", "2b", "big", "null"), drain(q, out));
+    }
+
+    private static void checkRankRaised(PrioritizedQueue q) {
+        List<String> out = new ArrayList<String>();
+        Node n1 = new Node(1), n2 = new Node(2), n3 = new Node(3);
+        q.add(n1, record(out, "1"));
+        q.add(n2, record(out, "2"));
+        q.add(n3, record(out, "3"));
+        // Raise n1 above n3 by linking n3 to it.
+        Node.Target[] t = new Node.Target[1];
+        n3.linkTo(null, n1, t);
+        q.ranksChanged();
+        assertEquals(Arrays.asList("2", "3", "1"), drain(q, out));
+    }
+
+    private static void checkRaisedEntryKeepsChronologicalOrder(PrioritizedQueue q) {
+        List<String> out = new ArrayList<String>();
+        Node n1 = new Node(1), n5 = new Node(5);
+        q.add(n1, record(out, "first"));
+        q.add(n5, record(out, "second"));
+        Node.Target[] t = new Node.Target[1];
+        new Node(4).linkTo(null, n1, t);
+        q.ranksChanged();
+        // Both are now rank 5, so they must come out in the order they were added.
+        assertEquals(Arrays.asList("first", "second"), drain(q, out));
+    }
+
+    public void testBucketOrder() {
+        checkOrder(new BucketPrioritizedQueue());
+    }
+
+    public void testHeapOrder() {
+        checkOrder(new HeapPrioritizedQueue());
+    }
+
+    public void testBucketRankRaised() {
+        checkRankRaised(new BucketPrioritizedQueue());
+        checkRaisedEntryKeepsChronologicalOrder(new BucketPrioritizedQueue());
+    }
+
+    public void testHeapRankRaised() {
+        checkRankRaised(new HeapPrioritizedQueue());
+        checkRaisedEntryKeepsChronologicalOrder(new HeapPrioritizedQueue());
+    }
+}
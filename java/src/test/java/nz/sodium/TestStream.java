@@ -138,6 +138,43 @@ public class TestStream extends TestCase {
         assertEquals(Arrays.asList("tomato","peach"), out);
     }
 
+    public void testMergeMany()
+    {
+        StreamSink<String> s = new StreamSink<String>((x, y) -> x + y);
+        List<Stream<String>> ss = new ArrayList<Stream<String>>();
+        ss.add(s.map(x -> x + "a").map(x -> x));  // Ranked after the others
+        ss.add(s.map(x -> x + "b"));
+        ss.add(s.filter(x -> x.equals("2")).map(x -> x + "c"));
+        ss.add(s);
+        Stream<String> merged = Stream.merge(ss, (x, y) -> x + "," + y);
+        assertEquals(1, new NetworkGraph().add(merged).nodes().stream()
+            .filter(n -> n.keepsAlive().size() == ss.size()).count());
+        List<String> out = new ArrayList<String>();
+        Listener l = merged.listen(x -> { out.add(x); });
+        s.send("1");
+        s.send("2");
+        Transaction.runVoid(() -> {
+            s.send("3");
+            s.send("4");
+        });
+        l.unlisten();
+        assertEquals(Arrays.asList("1a,1b,1", "2a,2b,2c,2", "34a,34b,34"), out);
+    }
+
+    public void testCalm()
+    {
+        StreamSink<Integer> s = new StreamSink<Integer>();
+        List<Integer> out = new ArrayList<Integer>();
+        List<Integer> outMod = new ArrayList<Integer>();
+        Listener l = s.calm().listen(x -> { out.add(x); })
+            .append(s.calm((a, b) -> a % 10 == b % 10).listen(x -> { outMod.add(x); }));
+        for (int x : new int[] { 1, 1, 2, 2, 12, 1, 1 })
+            s.send(x);
+        l.unlisten();
+        assertEquals(Arrays.asList(1, 2, 12, 1), out);
+        assertEquals(Arrays.asList(1, 2, 1), outMod);
+    }
+
     public void testLoopStream()
     {
         final StreamSink<Integer> ea = new StreamSink();
@@ -227,5 +264,94 @@ public class TestStream extends TestCase {
         l.unlisten();
         assertEquals(Arrays.asList('C','B','A'), out);
     }
-}
 
+    public void testSendAll()
+    {
+        StreamSink<Integer> e = new StreamSink<Integer>((a, b) -> a + b);
+        List<Integer> out = new ArrayList();
+        Listener l = e.listen(x -> { out.add(x); });
+        e.sendAll(Arrays.asList(1, 2, 3));
+        e.sendAll(new Integer[] { 10, 20 });
+        l.unlisten();
+        assertEquals(Arrays.asList(6, 30), out);
+    }
+
+    public void testSendBatch()
+    {
+        StreamSink<Integer> e1 = new StreamSink<Integer>((a, b) -> a + b);
+        StreamSink<Integer> e2 = new StreamSink<Integer>((a, b) -> b);
+        CellSink<String> c = new CellSink<String>("");
+        List<String> out = new ArrayList();
+        Listener l = e1.snapshot(c, (x, s) -> s + x).orElse(e2.map(x -> "e2 " + x)).listen(x -> { out.add(x); });
+        SendBatch batch = new SendBatch(TransactionDomain.current(), 3);
+        batch.add(e1, 1).add(c, "c").add(e2, 5)
+             .addAll(e1, Arrays.asList(2, 3)).add(e2, 6);
+        assertEquals(6, batch.size());
+        batch.send();
+        assertEquals(0, batch.size());
+        batch.add(e2, 7).send();
+        l.unlisten();
+        // Two transactions of three values each, then one more.
+        assertEquals(Arrays.asList("1", "c5", "e2 7"), out);
+        assertEquals("c", c.sample());
+    }
+
+    public void testCollectedStreamsAreUnlinked() throws InterruptedException
+    {
+        StreamSink<Integer> e = new StreamSink();
+        for (int i = 0; i < 100; i++)
+            e.map(x -> x + 1).filter(x -> x > 0).hold(0);
+        assertEquals(100, e.node.listeners.length);
+        for (int i = 0; i < 50 && e.node.listeners.length != 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertEquals(0, e.node.listeners.length);
+    }
+
+    public void testFusedChain()
+    {
+        StreamSink<Integer> e = new StreamSink<Integer>();
+        CellSink<Boolean> open = new CellSink<Boolean>(true);
+        Stream<String> s = Stream.filterOptional(
+            e.map(x -> x * 10)
+             .filter(x -> x != 30)
+             .gate(open)
+             .map(x -> x == 20 ? Optional.<Integer>empty() : Optional.of(x)))
+            .map(x -> "" + x);
+        List<String> out = new ArrayList<String>();
+        Listener l = s.listen(x -> { out.add(x); });
+        for (int i = 1; i <= 4; i++)
+            e.send(i);
+        open.send(false);
+        e.send(5);
+        l.unlisten();
+        assertEquals(Arrays.asList("10", "40"), out);
+        // The whole chain is one node after the sink's.
+        assertEquals(1, e.node.listeners.length);
+        assertEquals(2, new NetworkGraph().add(s).nodeCount());
+    }
+
+    public void testFusedStageWakesUp()
+    {
+        StreamSink<Integer> e = new StreamSink<Integer>();
+        Stream<Integer> m = e.map(x -> x + 1);
+        Stream<Integer> f = m.filter(x -> x % 2 == 0);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = f.listen(x -> { out.add(x); });
+        e.send(1);
+        List<Integer> outM = new ArrayList<Integer>();
+        Listener lm = Transaction.run(() -> {
+            e.send(3);
+            return m.listen(x -> { outM.add(x); });
+        });
+        e.send(5);
+        l.unlisten();
+        lm.unlisten();
+        assertEquals(Arrays.asList(2, 4, 6), out);
+        assertEquals(Arrays.asList(4, 6), outM);
+        // The filter has been moved back to after the map.
+        assertEquals(1, e.node.listeners.length);
+        assertEquals(1, m.node.listeners.length);
+    }
+}
@@ -0,0 +1,202 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TestTransactionDomain extends TestCase {
+    @Override
+    protected void tearDown() throws Exception {
+        System.gc();
+        Thread.sleep(100);
+    }
+
+    public void testSendInDomain() {
+        TransactionDomain d = new TransactionDomain();
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        Cell<Integer> c = s.map(x -> x * 2).hold(0);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = c.listen(x -> { out.add(x); });
+        s.send(1);
+        s.send(5);
+        l.unlisten();
+        assertEquals(Arrays.asList(0, 2, 10), out);
+        assertEquals((Integer)10, c.sample());
+    }
+
+    public void testDomainsDontLockEachOther() throws Exception {
+        TransactionDomain d1 = new TransactionDomain();
+        TransactionDomain d2 = new TransactionDomain();
+        CellSink<Integer> c1 = new CellSink<Integer>(d1, 0);
+        CellSink<Integer> c2 = new CellSink<Integer>(d2, 0);
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            d1.runVoid(() -> {
+                c1.send(1);
+                inside.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            });
+        });
+        t.start();
+        inside.await();
+        // d1 is in the middle of a transaction, but d2 isn't affected.
+        c2.send(2);
+        assertEquals((Integer)2, c2.sample());
+        release.countDown();
+        t.join();
+        assertEquals((Integer)1, c1.sample());
+    }
+
+    public void testLoopInDomain() {
+        TransactionDomain d = new TransactionDomain();
+        StreamSink<Integer> sa = new StreamSink<Integer>(d);
+        Cell<Integer> sum = d.run(() -> {
+            CellLoop<Integer> total = new CellLoop<Integer>();
+            total.loop(sa.snapshot(total, (a, t) -> a + t).hold(0));
+            return total;
+        });
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = sum.listen(x -> { out.add(x); });
+        sa.send(3);
+        sa.send(4);
+        l.unlisten();
+        assertEquals(Arrays.asList(0, 3, 7), out);
+    }
+
+    public void testConstantCellInDomain() {
+        TransactionDomain d = new TransactionDomain();
+        CellSink<Integer> a = new CellSink<Integer>(d, 1);
+        Cell<Integer> c = new Cell<Integer>(10).lift(a, (x, y) -> x + y);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = c.listen(x -> { out.add(x); });
+        a.send(2);
+        l.unlisten();
+        assertEquals(Arrays.asList(11, 12), out);
+    }
+
+    public void testCombiningDomainsFails() {
+        StreamSink<Integer> s1 = new StreamSink<Integer>(new TransactionDomain());
+        StreamSink<Integer> s2 = new StreamSink<Integer>(new TransactionDomain());
+        try {
+            s1.orElse(s2);
+            fail("merge across domains should fail");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    public void testSnapshotAcrossDomainsFails() {
+        StreamSink<Integer> s = new StreamSink<Integer>(new TransactionDomain());
+        TransactionDomain d = new TransactionDomain();
+        CellSink<Integer> c = new CellSink<Integer>(d, 1);
+        CellSink<Boolean> pred = new CellSink<Boolean>(d, true);
+        try {
+            s.snapshot(c);
+            fail("snapshot across domains should fail");
+        } catch (RuntimeException e) {
+        }
+        try {
+            s.snapshot(new Cell<Integer>(0), c, (a, b, x) -> a + b + x);
+            fail("snapshot across domains should fail");
+        } catch (RuntimeException e) {
+        }
+        try {
+            s.gate(pred);
+            fail("gate across domains should fail");
+        } catch (RuntimeException e) {
+        }
+        // A constant cell belongs to no domain, so it can be used anywhere.
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = s.snapshot(new Cell<Integer>(5)).listen(out::add);
+        s.send(1);
+        l.unlisten();
+        assertEquals(Arrays.asList(5), out);
+    }
+
+    public void testNestingDomainsFails() {
+        TransactionDomain d = new TransactionDomain();
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        try {
+            Transaction.runVoid(() -> s.send(1));
+            fail("transaction in one domain inside another should fail");
+        } catch (RuntimeException e) {
+        }
+        // The failure must leave both domains usable.
+        s.send(2);
+        Transaction.runVoid(() -> {});
+    }
+
+    public void testBridge() throws Exception {
+        TransactionDomain d1 = new TransactionDomain();
+        TransactionDomain d2 = new TransactionDomain();
+        StreamSink<Integer> s1 = new StreamSink<Integer>(d1);
+        Stream<Integer> s2 = d2.bridge(s1.map(x -> x + 1));
+        List<Integer> out = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch done = new CountDownLatch(100);
+        Listener l = s2.listen(x -> {
+            out.add(x);
+            done.countDown();
+        });
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            s1.send(i);
+            expected.add(i + 1);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        l.unlisten();
+        assertEquals(expected, out);
+    }
+
+    public void testBridgeWaitsForSourceToCommit() throws Exception {
+        TransactionDomain d1 = new TransactionDomain();
+        TransactionDomain d2 = new TransactionDomain();
+        StreamSink<Integer> s1 = new StreamSink<Integer>(d1);
+        Stream<Integer> s2 = d2.bridge(s1);
+        CountDownLatch received = new CountDownLatch(1);
+        Listener l = s2.listen(x -> { received.countDown(); });
+        // This runs after the bridge has seen the event, but before the source
+        // transaction has finished.
+        boolean[] early = new boolean[1];
+        Listener l2 = s1.listen(x -> {
+            try {
+                early[0] = received.await(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+            }
+        });
+        s1.send(1);
+        assertFalse(early[0]);
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        l.unlisten();
+        l2.unlisten();
+    }
+
+    public void testLiveListenerCount() throws Exception {
+        TransactionDomain d = new TransactionDomain();
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Listener> ls = Collections.synchronizedList(new ArrayList<Listener>());
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 250; j++)
+                    ls.add(s.listen(x -> {}));
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(1000, d.liveListenerCount());
+        assertEquals(0, new TransactionDomain().liveListenerCount());
+        for (Listener l : ls)
+            l.unlisten();
+        assertEquals(0, d.liveListenerCount());
+    }
+}
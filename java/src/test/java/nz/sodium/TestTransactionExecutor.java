@@ -0,0 +1,72 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TestTransactionExecutor extends TestCase {
+    public void testSendInOrder() throws Exception {
+        TransactionDomain d = new TransactionDomain();
+        TransactionExecutor ex = new TransactionExecutor(d, 0, Executors.defaultThreadFactory());
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        CellSink<Integer> c = new CellSink<Integer>(d, 0);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = s.snapshot(c, (x, y) -> x + y).listen(x -> { out.add(x); });
+        ex.send(c, 100);
+        ex.send(s, 1);
+        ex.send(s, 2);
+        CompletableFuture<Unit> f = ex.send(s, 3);
+        f.get(10, TimeUnit.SECONDS);
+        ex.shutdown();
+        ex.awaitTermination();
+        l.unlisten();
+        assertEquals(Arrays.asList(101, 102, 103), out);
+    }
+
+    public void testManyProducers() throws Exception {
+        TransactionDomain d = new TransactionDomain();
+        TransactionExecutor ex = new TransactionExecutor(d, 16, Executors.defaultThreadFactory());
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        Cell<Integer> total = s.accum(0, (x, t) -> x + t);
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++)
+                    ex.send(s, 1);
+            });
+            producers[i].start();
+        }
+        for (Thread t : producers)
+            t.join();
+        ex.submit(() -> {}).get(10, TimeUnit.SECONDS);
+        assertEquals((Integer)4000, total.sample());
+        ex.shutdown();
+    }
+
+    public void testFailureCompletesFuture() throws Exception {
+        TransactionDomain d = new TransactionDomain();
+        TransactionExecutor ex = new TransactionExecutor(d, 0, Executors.defaultThreadFactory());
+        CompletableFuture<Unit> f = ex.submit(() -> { throw new IllegalArgumentException("boom"); });
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail("future should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        // The executor carries on after a failure.
+        ex.submit(() -> {}).get(10, TimeUnit.SECONDS);
+        ex.shutdown();
+        ex.awaitTermination();
+        try {
+            ex.submit(() -> {});
+            fail("submit after shutdown should fail");
+        } catch (IllegalStateException e) {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package nz.sodium;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestTransactionRecorder extends TestCase {
+    public void testCountsPerTransaction() {
+        TransactionDomain d = new TransactionDomain();
+        TransactionRecorder r = new TransactionRecorder();
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        Listener l = s.map(x -> x + 1).listen(x -> {})
+            .append(Operational.defer(s).listen(x -> {}));
+        d.setInstrumentation(r);
+        s.send(1);
+        s.send(2);
+        d.setInstrumentation(null);
+        s.send(3);
+        l.unlisten();
+        // Each send is one transaction, plus one started by defer() while closing it.
+        assertEquals(4, r.durations().count());
+        assertEquals(4, r.lockWaits().count());
+        assertEquals(2, r.post().total());
+        assertTrue(r.prioritized().total() >= 6);
+        assertEquals(0, r.listenerFailures());
+    }
+
+    public void testListenerFailures() {
+        TransactionDomain d = new TransactionDomain();
+        TransactionRecorder r = new TransactionRecorder();
+        d.setInstrumentation(r);
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        List<Integer> out = new ArrayList<Integer>();
+        Listener l = s.listen(x -> { throw new RuntimeException("boom"); })
+            .append(s.listen(x -> { out.add(x); }));
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            s.send(1);
+            s.send(2);
+        } finally {
+            System.setErr(err);
+        }
+        l.unlisten();
+        assertEquals(2, r.listenerFailures());
+        assertEquals(2, out.size());
+        r.reset();
+        assertEquals(0, r.listenerFailures());
+        assertEquals(0, r.durations().count());
+    }
+
+    public void testRegens() {
+        TransactionDomain d = new TransactionDomain();
+        TransactionRecorder r = new TransactionRecorder();
+        StreamSink<Integer> s = new StreamSink<Integer>(d);
+        Cell<Integer> c1 = s.hold(0);
+        Cell<Integer> c2 = c1.map(x -> x + 1).map(x -> x + 1);
+        CellSink<Cell<Integer>> cc = new CellSink<Cell<Integer>>(d, c1);
+        Listener l = Cell.switchC(cc).listen(x -> {});
+        d.setInstrumentation(r);
+        cc.send(c2);
+        l.unlisten();
+        assertTrue(r.regens().total() >= 1);
+    }
+
+    public void testHistogramPrecision() {
+        TransactionRecorder r = new TransactionRecorder();
+        for (int i = 1; i <= 1000000; i++)
+            r.transactionClosed(i, 0, 0, 0, 0);
+        TransactionRecorder.Histogram h = r.durations();
+        assertEquals(1000000, h.count());
+        assertEquals(1000000, h.max());
+        assertEquals(500000.5, h.mean(), 0.001);
+        assertEquals(1, h.percentile(0));
+        assertWithin(500000, h.percentile(50));
+        assertWithin(990000, h.percentile(99));
+        assertEquals(1000000, h.percentile(100));
+        r.transactionClosed(Long.MAX_VALUE, 0, 0, 0, 0);
+        assertEquals(Long.MAX_VALUE, r.durations().percentile(100));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " should be within 1/64 of " + expected,
+            Math.abs(actual - expected) <= expected / 64);
+    }
+}
@@ -0,0 +1,146 @@
+package nz.sodium.time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.TransactionDomain;
+
+import junit.framework.TestCase;
+
+public class TestTimerSystem extends TestCase {
+    /**
+     * A clock that only moves when we tell it to.
+     */
+    static class ManualTimerSystemImpl implements TimerSystemImpl<Long> {
+        class ManualTimer implements Timer, Comparable<ManualTimer> {
+            ManualTimer(long t, Runnable callback) {
+                this.t = t;
+                this.seq = nextSeq++;
+                this.callback = callback;
+            }
+            final long t;
+            final long seq;
+            final Runnable callback;
+            public void cancel() {
+                timers.remove(this);
+            }
+            public int compareTo(ManualTimer o) {
+                if (t != o.t) return t < o.t ? -1 : 1;
+                return seq < o.seq ? -1 : seq > o.seq ? 1 : 0;
+            }
+        }
+        final PriorityQueue<ManualTimer> timers = new PriorityQueue<ManualTimer>();
+        long nextSeq;
+        long now;
+        // Run due timers latest first, as a timer thread that's fallen behind might.
+        boolean reverse;
+
+        public Timer setTimer(Long t, Runnable callback) {
+            ManualTimer timer = new ManualTimer(t, callback);
+            timers.add(timer);
+            return timer;
+        }
+        public void runTimersTo(Long t) {
+            List<ManualTimer> due = new ArrayList<ManualTimer>();
+            while (!timers.isEmpty() && timers.peek().t <= t)
+                due.add(timers.poll());
+            if (reverse)
+                Collections.reverse(due);
+            for (ManualTimer timer : due)
+                timer.callback.run();
+        }
+        public Long now() {
+            return now;
+        }
+    }
+
+    private static void tick(TransactionDomain domain) {
+        domain.runVoid(() -> {});
+    }
+
+    public void testAlarmsFireInTimeOrder() {
+        checkAlarmsFireInTimeOrder(false);
+        checkAlarmsFireInTimeOrder(true);
+    }
+
+    private void checkAlarmsFireInTimeOrder(boolean reverse) {
+        TransactionDomain domain = new TransactionDomain();
+        ManualTimerSystemImpl impl = new ManualTimerSystemImpl();
+        impl.reverse = reverse;
+        TimerSystem<Long> sys = new TimerSystem<Long>(impl, domain);
+        List<String> out = new ArrayList<String>();
+        List<Listener> ls = new ArrayList<Listener>();
+        long[] times = { 30, 10, 20, 15 };
+        for (int i = 0; i < times.length; i++) {
+            final int n = i;
+            Stream<Long> s = sys.at(new CellSink<Optional<Long>>(domain, Optional.of(times[i])));
+            ls.add(s.snapshot(sys.time, (t, now) -> n + "@" + t + "/" + now)
+                    .listen(x -> { out.add(x); }));
+        }
+        impl.now = 25;
+        tick(domain);
+        assertEquals(Arrays.asList("1@10/10", "3@15/15", "2@20/20"), out);
+        assertEquals(Long.valueOf(25), sys.time.sample());
+        impl.now = 100;
+        tick(domain);
+        assertEquals(Arrays.asList("1@10/10", "3@15/15", "2@20/20", "0@30/30"), out);
+        for (Listener l : ls)
+            l.unlisten();
+    }
+
+    public void testSimultaneousAlarmsShareATransaction() {
+        final int n = 100000;
+        TransactionDomain domain = new TransactionDomain();
+        ManualTimerSystemImpl impl = new ManualTimerSystemImpl();
+        TimerSystem<Long> sys = new TimerSystem<Long>(impl, domain);
+        List<Stream<Long>> alarms = new ArrayList<Stream<Long>>();
+        CellSink<Optional<Long>> alarmAt = new CellSink<Optional<Long>>(domain, Optional.of(50L));
+        for (int i = 0; i < n; i++)
+            alarms.add(sys.at(alarmAt));
+        int[] fired = new int[1];
+        List<Long> merged = new ArrayList<Long>();
+        List<Listener> ls = new ArrayList<Listener>();
+        ls.add(Stream.merge(alarms, (a, b) -> a).listen(t -> { merged.add(t); }));
+        for (Stream<Long> s : alarms)
+            ls.add(s.listen(t -> { fired[0]++; }));
+        impl.now = 49;
+        tick(domain);
+        assertEquals(0, fired[0]);
+        impl.now = 60;
+        tick(domain);
+        for (Listener l : ls)
+            l.unlisten();
+        assertEquals(n, fired[0]);
+        // All in one transaction, so the merge fires once.
+        assertEquals(Arrays.asList(50L), merged);
+    }
+
+    public void testNanoseconds() throws InterruptedException {
+        for (long spinNanos : new long[] { 0, 100000 }) {
+            TransactionDomain domain = new TransactionDomain();
+            NanosecondsTimerSystem sys = new NanosecondsTimerSystem(domain, spinNanos);
+            long t0 = sys.time.sample();
+            CellSink<Optional<Long>> alarmAt = new CellSink<Optional<Long>>(domain,
+                Optional.of(t0 + 300000000));
+            List<Long> out = Collections.synchronizedList(new ArrayList<Long>());
+            Listener l = domain.run(() -> sys.at(alarmAt).listen(t -> {
+                out.add(System.nanoTime() - t);
+            }));
+            // An earlier alarm has to wake the timer thread up. They're far enough
+            // ahead that the first one can't go off before we move it.
+            alarmAt.send(Optional.of(t0 + 200000000));
+            for (int i = 0; i < 200 && out.isEmpty(); i++)
+                Thread.sleep(10);
+            l.unlisten();
+            assertEquals(1, out.size());
+            assertTrue("fired early", out.get(0) >= 0);
+        }
+    }
+}
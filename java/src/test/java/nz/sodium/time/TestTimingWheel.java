@@ -0,0 +1,112 @@
+package nz.sodium.time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.Transaction;
+
+import junit.framework.TestCase;
+
+public class TestTimingWheel extends TestCase {
+    static final long BASE = System.currentTimeMillis() + 1000L * 60 * 60 * 24 * 365;
+
+    public void testFiresInOrder() {
+        TimingWheelTimerSystemImpl wheel = new TimingWheelTimerSystemImpl(1, false);
+        List<String> out = new ArrayList<String>();
+        wheel.setTimer(BASE + 5000, () -> out.add("c"));
+        wheel.setTimer(BASE + 10, () -> out.add("a"));
+        wheel.setTimer(BASE + 70, () -> out.add("b1"));
+        wheel.setTimer(BASE + 70, () -> out.add("b2"));
+        wheel.setTimer(BASE + 1000000000L, () -> out.add("d"));
+        wheel.runTimersTo(BASE + 9);
+        assertEquals(Arrays.<String>asList(), out);
+        wheel.runTimersTo(BASE + 100);
+        assertEquals(Arrays.asList("a", "b1", "b2"), out);
+        wheel.setTimer(BASE, () -> out.add("late"));
+        wheel.runTimersTo(BASE + 100);
+        wheel.runTimersTo(BASE + 1000000000L);
+        assertEquals(Arrays.asList("a", "b1", "b2", "late", "c", "d"), out);
+        assertEquals(0, wheel.pending());
+    }
+
+    public void testCancel() {
+        TimingWheelTimerSystemImpl wheel = new TimingWheelTimerSystemImpl(1, false);
+        List<String> out = new ArrayList<String>();
+        Timer a = wheel.setTimer(BASE + 10, () -> out.add("a"));
+        wheel.setTimer(BASE + 20, () -> out.add("b"));
+        Timer c = wheel.setTimer(BASE + 100000, () -> out.add("c"));
+        a.cancel();
+        c.cancel();
+        c.cancel();
+        assertEquals(1, wheel.pending());
+        wheel.runTimersTo(BASE + 200000);
+        assertEquals(Arrays.asList("b"), out);
+        assertEquals(0, wheel.pending());
+    }
+
+    /**
+     * Random timers, cancels and advances, checked against a simple list of what should
+     * be pending, for ticks of 1 and 7 milliseconds.
+     */
+    public void testRandom() {
+        for (final long tickMillis : new long[] { 1, 7 }) {
+            Random rng = new Random(tickMillis);
+            TimingWheelTimerSystemImpl wheel = new TimingWheelTimerSystemImpl(tickMillis, false);
+            List<long[]> pending = new ArrayList<long[]>();  // time, id
+            List<Timer> timers = new ArrayList<Timer>();
+            final List<Long> fired = new ArrayList<Long>();
+            long now = BASE;
+            for (int step = 0; step < 20000; step++) {
+                int op = rng.nextInt(10);
+                if (op < 5) {
+                    // Spread the times over several levels of the wheel.
+                    long t = now + (long)Math.pow(2, rng.nextDouble() * 30) - 1000;
+                    final long id = timers.size();
+                    timers.add(wheel.setTimer(t, () -> fired.add(id)));
+                    pending.add(new long[] { t, id });
+                }
+                else if (op < 8 && !pending.isEmpty()) {
+                    long[] p = pending.remove(rng.nextInt(pending.size()));
+                    timers.get((int)p[1]).cancel();
+                }
+                else {
+                    now += (long)Math.pow(2, rng.nextDouble() * 24);
+                    fired.clear();
+                    wheel.runTimersTo(now);
+                    List<long[]> expected = new ArrayList<long[]>();
+                    long lastTick = now / tickMillis;
+                    for (long[] p : new ArrayList<long[]>(pending)) {
+                        long tick = (p[0] + tickMillis - 1) / tickMillis;
+                        if (tick <= lastTick) {
+                            expected.add(p);
+                            pending.remove(p);
+                        }
+                    }
+                    expected.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+                    List<Long> expectedIds = new ArrayList<Long>();
+                    for (long[] p : expected)
+                        expectedIds.add(p[1]);
+                    assertEquals(expectedIds, fired);
+                    assertEquals(pending.size(), wheel.pending());
+                }
+            }
+        }
+    }
+
+    public void testAlarm() throws InterruptedException {
+        TimingWheelTimerSystem sys = new TimingWheelTimerSystem(5);
+        long t0 = sys.time.sample();
+        CellSink<Optional<Long>> alarm = new CellSink<Optional<Long>>(Optional.of(t0 + 50));
+        List<Long> out = new ArrayList<Long>();
+        Listener l = sys.at(alarm).listen(t -> { out.add(t); });
+        Thread.sleep(300);
+        Transaction.runVoid(() -> {});
+        l.unlisten();
+        assertEquals(Arrays.asList(t0 + 50), out);
+    }
+}
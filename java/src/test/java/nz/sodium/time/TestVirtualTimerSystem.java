@@ -0,0 +1,77 @@
+package nz.sodium.time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import nz.sodium.CellLoop;
+import nz.sodium.CellSink;
+import nz.sodium.Listener;
+import nz.sodium.Stream;
+import nz.sodium.Transaction;
+import nz.sodium.TransactionDomain;
+
+import junit.framework.TestCase;
+
+public class TestVirtualTimerSystem extends TestCase {
+    static Stream<Long> periodic(TimerSystem<Long> sys, long period) {
+        return Transaction.run(() -> {
+            CellLoop<Optional<Long>> oAlarm = new CellLoop<Optional<Long>>();
+            Stream<Long> sAlarm = sys.at(oAlarm);
+            oAlarm.loop(sAlarm.map(t -> Optional.of(t + period))
+                              .hold(Optional.of(sys.time.sample() + period)));
+            return sAlarm;
+        });
+    }
+
+    public void testAdvanceTo() {
+        VirtualTimerSystem<Long> sys = new VirtualTimerSystem<Long>(1000L);
+        List<String> out = new ArrayList<String>();
+        Listener l = periodic(sys, 300).snapshot(sys.time, (t, now) -> t + "/" + now)
+            .listen(x -> { out.add(x); });
+        assertEquals(Long.valueOf(1000), sys.time.sample());
+        sys.advanceTo(1900L);
+        assertEquals(Arrays.asList("1300/1300", "1600/1600", "1900/1900"), out);
+        sys.advanceTo(2000L);
+        assertEquals(Long.valueOf(2000), sys.time.sample());
+        assertEquals(Optional.of(2200L), sys.advanceToNext());
+        assertEquals(Long.valueOf(2200), sys.time.sample());
+        l.unlisten();
+        assertEquals(4, out.size());
+    }
+
+    public void testSimulatedDay() {
+        TransactionDomain domain = new TransactionDomain();
+        VirtualTimerSystem<Long> sys = new VirtualTimerSystem<Long>(0L, domain);
+        long day = 24L * 60 * 60 * 1000;
+        long[] ticks = new long[1];
+        Listener l = domain.run(() -> periodic(sys, 1000).listen(t -> { ticks[0]++; }));
+        sys.advanceTo(day);
+        l.unlisten();
+        assertEquals(24 * 60 * 60, ticks[0]);
+        assertEquals(Long.valueOf(day), sys.time.sample());
+    }
+
+    public void testNoAlarms() {
+        VirtualTimerSystem<Double> sys = new VirtualTimerSystem<Double>(0.0);
+        CellSink<Optional<Double>> alarm = new CellSink<Optional<Double>>(Optional.empty());
+        List<Double> out = new ArrayList<Double>();
+        Listener l = sys.at(alarm).listen(t -> { out.add(t); });
+        assertEquals(Optional.empty(), sys.advanceToNext());
+        alarm.send(Optional.of(2.5));
+        alarm.send(Optional.of(1.5));
+        sys.advanceTo(10.0);
+        l.unlisten();
+        assertEquals(Arrays.asList(1.5), out);
+    }
+
+    public void testCantAdvanceInsideTransaction() {
+        VirtualTimerSystem<Long> sys = new VirtualTimerSystem<Long>(0L);
+        try {
+            Transaction.runVoid(() -> sys.advanceTo(10L));
+            fail("should have thrown");
+        } catch (RuntimeException e) {
+        }
+    }
+}